@@ -39,6 +39,13 @@ attribute vec3 inPosition;
 attribute vec2 inTexCoord;
 attribute vec3 inNormal;
 
+#ifdef INSTANCED_GRASS
+  // Per-blade position
+  attribute vec3 inInstanceData;
+  // Per-blade normal x, normal z, size, and variation index as bytes
+  attribute vec4 inTexCoord2;
+#endif
+
 varying vec3 lightVec;
 //varying vec4 spotVec;
 
@@ -141,8 +148,17 @@ vec2 computeLighting(in vec3 wvPos, in vec3 wvNorm, in vec3 wvViewDir, in vec4 w
 #endif
 
 void main(){
-   vec4 modelSpacePos = vec4(inPosition, 1.0);
-   vec3 modelSpaceNorm = inNormal;
+   #ifdef INSTANCED_GRASS
+    // The instance has the blade and inPosition.x says which corner
+    // this is.  Grass only grows on upward facing slopes so the normal's
+    // y can be rebuilt from x and z.
+    vec4 modelSpacePos = vec4(inInstanceData, 1.0);
+    vec2 normalXZ = inTexCoord2.xy / 127.0;
+    vec3 modelSpaceNorm = vec3(normalXZ.x, sqrt(max(0.0, 1.0 - dot(normalXZ, normalXZ))), normalXZ.y);
+   #else
+    vec4 modelSpacePos = vec4(inPosition, 1.0);
+    vec3 modelSpaceNorm = inNormal;
+   #endif
    
    #ifndef VERTEX_LIGHTING
         vec3 modelSpaceTan  = inTangent.xyz;
@@ -159,7 +175,12 @@ void main(){
    // We plot the position of the grass vertexes based on the
    // texture coordinates
    //gl_Position = g_WorldViewProjectionMatrix * modelSpacePos;
-   texCoord = inTexCoord;
+   #ifdef INSTANCED_GRASS
+    // Same layout as the baked texture coordinates
+    texCoord = vec2(inTexCoord2.w + inPosition.x, inTexCoord2.z / 127.0 * 2.0);
+   #else
+    texCoord = inTexCoord;
+   #endif
    #ifdef SEPARATE_TEXCOORD
       texCoord2 = inTexCoord2;
    #endif
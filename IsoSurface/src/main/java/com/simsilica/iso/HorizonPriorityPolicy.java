@@ -0,0 +1,270 @@
+/*
+ * $Id$
+ * 
+ * Copyright (c) 2014, Simsilica, LLC
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright 
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its 
+ *    contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) 
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED 
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simsilica.iso;
+
+import com.jme3.math.Vector3f;
+import com.simsilica.iso.util.ColumnHeights;
+import com.simsilica.pager.Grid;
+import com.simsilica.pager.PagedGrid;
+import com.simsilica.pager.ViewPriorityPolicy;
+import com.simsilica.pager.Zone;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+
+/**
+ *  A ViewPriorityPolicy that also pushes back zones that are 
+ *  probably hidden behind terrain.  Occlusion is estimated by 
+ *  stepping a few samples along the line from the viewer to the zone
+ *  and comparing them against the COLUMN_HEIGHTS that the terrain zones
+ *  publish when they are built.  If the lines hit the terrain before 
+ *  reaching the zone then the zone is considered to be below the horizon.
+ *  This is very coarse but it's cheap and good enough to let the visible 
+ *  ridge lines build before the valleys behind them.
+ *
+ *  <p>All of the expensive work happens on the build threads when the
+ *  terrain zones are built.  Priorities are asked for on the thread that
+ *  manages the PagedGrid so checking a zone here is only a handful of 
+ *  height lookups.  The terrain's heights are collected once per 
+ *  setView() and terrain that hasn't been built yet doesn't block 
+ *  anything.  Each zone's result is cached until the viewer moves more 
+ *  than a few units from where it was checked.  Results that were missing
+ *  terrain are checked again the next time they are asked for.</p>
+ *
+ *  @author    Paul Speed
+ */
+public class HorizonPriorityPolicy extends ViewPriorityPolicy {
+
+    private PagedGrid terrain;
+    private Grid terrainGrid;
+    private int samples = 8;
+    private float occludedScale = 1;
+    private float cacheDistance = 4;
+    
+    private Map<Zone, Occlusion> occluded = new WeakHashMap<Zone, Occlusion>();
+    private Vector3f temp = new Vector3f();
+ 
+    // The terrain heights looked up since the last setView().  Zones
+    // share most of the terrain that their lines of sight cross.
+    private Map<Long, TerrainColumn> columns = new HashMap<Long, TerrainColumn>();
+    
+    // Set when any lookup during the current check had no built terrain 
+    private boolean missing;
+    
+    public HorizonPriorityPolicy( PagedGrid terrain ) {
+        this.terrain = terrain;
+        this.terrainGrid = terrain.getGrid();
+    }
+ 
+    /**
+     *  Sets the number of height samples taken along each line of
+     *  sight.  Defaults to 8.
+     */   
+    public void setSamples( int samples ) {
+        this.samples = samples;
+        occluded.clear();
+    }
+    
+    public int getSamples() {
+        return samples;
+    }
+ 
+    /**
+     *  Scales the penalty given to occluded zones.  1 means that 
+     *  occluded zones are pushed back by the grid radius.  Defaults to 1.
+     */   
+    public void setOccludedScale( float scale ) {
+        this.occludedScale = scale;
+    }
+    
+    public float getOccludedScale() {
+        return occludedScale;
+    }
+ 
+    /**
+     *  Sets how far the viewer can move from where a zone was checked
+     *  before the zone is checked again.  Defaults to 4.
+     */   
+    public void setCacheDistance( float distance ) {
+        this.cacheDistance = distance;
+    }
+    
+    public float getCacheDistance() {
+        return cacheDistance;
+    }
+    
+    /**
+     *  Sets the view and forgets the terrain heights that were looked up
+     *  since the last call because more terrain may have been built.
+     */   
+    @Override
+    public boolean setView( Vector3f location, Vector3f direction ) {
+        columns.clear();
+        return super.setView(location, direction);
+    }
+    
+    @Override
+    public int getPriority( PagedGrid grid, Zone zone, int basePriority ) {
+        int result = super.getPriority(grid, zone, basePriority);
+        if( isOccluded(zone) ) {
+            result += (int)(occludedScale * grid.getRadius() * grid.getPriorityBias());
+        }
+        return result;
+    }
+ 
+    /**
+     *  Returns true if the lines of sight to the center and the top
+     *  of the zone are both blocked by terrain.
+     */   
+    protected boolean isOccluded( Zone zone ) {
+        Vector3f eye = getLocation();
+        Occlusion cached = occluded.get(zone);
+        if( cached != null && cached.eye.distanceSquared(eye) <= cacheDistance * cacheDistance ) {
+            return cached.blocked;
+        }
+        
+        Grid zoneGrid = zone.getGrid();
+        Vector3f size = zoneGrid.getCellSize();
+        Vector3f target = zone.getWorldLocation(temp);
+        target.x += size.x * 0.5f;
+        target.z += size.z * 0.5f;
+        
+        // Check the top of the zone first since it's the most likely
+        // to be visible
+        missing = false;
+        target.y += size.y;
+        boolean result = isBlocked(eye, target);
+        if( result ) {
+            target.y -= size.y * 0.5f;
+            result = isBlocked(eye, target);
+        }
+        
+        // More terrain can only add blockers so a blocked result
+        // is good regardless
+        if( result || !missing ) {
+            if( cached == null ) {
+                cached = new Occlusion();
+                occluded.put(zone, cached);
+            }
+            cached.eye.set(eye);
+            cached.blocked = result;
+        } else if( cached != null ) {
+            occluded.remove(zone);
+        }
+        return result;
+    }
+ 
+    /**
+     *  Returns true if any sample between the eye and the target,
+     *  not counting the ends, is below the terrain.
+     */   
+    protected boolean isBlocked( Vector3f eye, Vector3f target ) {
+        for( int i = 1; i < samples; i++ ) {
+            float t = (float)i / samples;
+            float x = eye.x + (target.x - eye.x) * t;
+            float y = eye.y + (target.y - eye.y) * t;
+            float z = eye.z + (target.z - eye.z) * t;
+            if( y < getHeight(x, z) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+ 
+    /**
+     *  Returns the highest built terrain at the specified world x, z
+     *  or Float.NEGATIVE_INFINITY if there isn't any.
+     */   
+    protected float getHeight( float x, float z ) {
+        int xCell = terrainGrid.toCellX(x);
+        int zCell = terrainGrid.toCellZ(z);
+        TerrainColumn column = getColumn(xCell, zCell);
+        if( column.missing ) {
+            missing = true;
+        }
+        
+        float xLocal = x - terrainGrid.toWorldX(xCell);
+        float zLocal = z - terrainGrid.toWorldZ(zCell);
+        float result = Float.NEGATIVE_INFINITY;
+        for( int layer = 0; layer < column.layers.length; layer++ ) {
+            ColumnHeights heights = column.layers[layer];
+            if( heights == null ) {
+                continue;
+            }
+            float h = heights.getHeight(xLocal, zLocal);
+            if( h != Float.NEGATIVE_INFINITY ) {
+                result = Math.max(result, terrainGrid.toWorldY(layer) + h);
+            }
+        }
+        return result;
+    }
+ 
+    protected TerrainColumn getColumn( int xCell, int zCell ) {
+        Long key = ((long)xCell << 32) | (zCell & 0xffffffffL);
+        TerrainColumn result = columns.get(key);
+        if( result == null ) {
+            result = new TerrainColumn(xCell, zCell);
+            columns.put(key, result);
+        }
+        return result;
+    }
+ 
+    /**
+     *  The published heights of every layer of one terrain column.
+     */
+    private class TerrainColumn {
+        ColumnHeights[] layers = new ColumnHeights[terrain.getLayers()];
+        boolean missing;
+        
+        public TerrainColumn( int xCell, int zCell ) {
+            for( int layer = 0; layer < layers.length; layer++ ) {
+                Zone zone = terrain.getBuiltZone(xCell, layer, zCell);
+                if( zone == null ) {
+                    missing = true;
+                } else {
+                    layers[layer] = zone.getZoneData(IsoTerrainZone.COLUMN_HEIGHTS);
+                }
+            }
+        }
+    }
+ 
+    private class Occlusion {
+        Vector3f eye = new Vector3f();
+        boolean blocked;
+    }
+}
@@ -44,12 +44,15 @@ import com.jme3.scene.Geometry;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
-import com.jme3.scene.VertexBuffer;
-import com.jme3.util.BufferUtils;
+import com.simsilica.builder.ApplyPacket;
 import com.simsilica.builder.Builder;
+import com.simsilica.builder.BufferReclaimer;
+import com.simsilica.iso.tri.TriangleBins;
+import com.simsilica.iso.util.ColumnHeights;
 import com.simsilica.iso.volume.ArrayDensityVolume;
 import com.simsilica.pager.Grid;
 import com.simsilica.pager.Zone;
+import com.simsilica.pager.ZoneDataKey;
 import java.util.concurrent.locks.ReentrantLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,6 +68,34 @@ public class IsoTerrainZone implements Zone {
 
     static Logger log = LoggerFactory.getLogger(IsoTerrainZone.class);
 
+    /**
+     *  The land mesh of the currently applied build in zone-relative
+     *  coordinates.  Child zones can plot directly on this rather than
+     *  walking the zone's scene graph. 
+     */
+    public static final ZoneDataKey<Mesh> LAND_MESH = new ZoneDataKey<Mesh>("landMesh", Mesh.class);
+ 
+    /**
+     *  An x/z index of the LAND_MESH triangles so that child zones only
+     *  need to look at the triangles near their own cell.  Built on the
+     *  build thread along with the mesh.
+     */
+    public static final ZoneDataKey<TriangleBins> TRIANGLE_BINS 
+                = new ZoneDataKey<TriangleBins>("triangleBins", TriangleBins.class);
+ 
+    public static final float DEFAULT_TRIANGLE_BIN_SIZE = 8; 
+ 
+    /**
+     *  The highest LAND_MESH vertex in each of a coarse grid of x/z 
+     *  columns, in zone-relative coordinates.  Built on the build thread 
+     *  along with the mesh so that horizon checks never have to sample 
+     *  the density field.  Null if the zone's mesh is empty.
+     */
+    public static final ZoneDataKey<ColumnHeights> COLUMN_HEIGHTS 
+                = new ZoneDataKey<ColumnHeights>("columnHeights", ColumnHeights.class);
+                
+    public static final int DEFAULT_HEIGHT_COLUMNS = 16;
+
     private int xCell;
     private int yCell;
     private int zCell;
@@ -74,7 +105,13 @@ public class IsoTerrainZone implements Zone {
     private DensityVolume source;
     private int priority;
     private Node node;
-    private Spatial land;
+    private volatile LandPacket builtLand;
+    private LandPacket land;
+    private volatile Mesh publishedMesh;
+    private volatile TriangleBins publishedBins;
+    private volatile ColumnHeights publishedHeights;
+    private float triangleBinSize = DEFAULT_TRIANGLE_BIN_SIZE;
+    private int heightColumns = DEFAULT_HEIGHT_COLUMNS;
     private Spatial wire;
     private Supplier<? extends MeshGenerator> generator;
     private Material terrainMaterial;
@@ -146,6 +183,30 @@ public class IsoTerrainZone implements Zone {
         return grid.toWorld(xCell, yCell, zCell, target);
     }
     
+    /**
+     *  Sets the x/z size of the triangle bins built for child zones.
+     *  0 turns off the bins.
+     */
+    public void setTriangleBinSize( float size ) {
+        this.triangleBinSize = size;
+    }
+    
+    public float getTriangleBinSize() {
+        return triangleBinSize;
+    }
+ 
+    /**
+     *  Sets the number of x and z columns in the COLUMN_HEIGHTS built 
+     *  for the zone.  0 turns off the heights.
+     */
+    public void setHeightColumns( int columns ) {
+        this.heightColumns = columns;
+    }
+    
+    public int getHeightColumns() {
+        return heightColumns;
+    }
+    
     public void setMeshGenerator( Supplier<? extends MeshGenerator> generator ) {
         this.generator = generator;
     }
@@ -169,7 +230,21 @@ public class IsoTerrainZone implements Zone {
         return node;
     }
 
-    public void setParentZone( Zone parentZone ) {
+    public void setParentZones( Zone... parentZones ) {
+    }
+
+    @Override
+    public <T> T getZoneData( ZoneDataKey<T> key ) {
+        if( key == LAND_MESH ) {
+            return key.cast(publishedMesh);
+        }
+        if( key == TRIANGLE_BINS ) {
+            return key.cast(publishedBins);
+        }
+        if( key == COLUMN_HEIGHTS ) {
+            return key.cast(publishedHeights);
+        }
+        return null;
     }
 
     public void build() {
@@ -207,28 +282,39 @@ public class IsoTerrainZone implements Zone {
             long time2 = time1;
     
             Mesh landMesh = generator.get().buildMesh(volume);
+            Spatial geom = null;
+            TriangleBins bins = null;
+            ColumnHeights heights = null;
             if( landMesh != null ) {
-                land = createLand(landMesh, false);
+                geom = createLand(landMesh, false);
+                BufferReclaimer.getInstance().track(landMesh);
                 if( log.isDebugEnabled() ) {
                     log.debug("volume size:" + volumeSize);                
                     log.debug("bounding shape:" + landMesh.getBound());
                 }                
-                land.setShadowMode(RenderQueue.ShadowMode.CastAndReceive);
+                geom.setShadowMode(RenderQueue.ShadowMode.CastAndReceive);
                 time2 = System.nanoTime();
                 if( generateCollisionData ) {
                     landMesh.createCollisionData();
+                }
+                if( triangleBinSize > 0 ) {
+                    bins = new TriangleBins(landMesh, triangleBinSize);
                 } 
+                if( heightColumns > 0 ) {
+                    Vector3f cellSize = grid.getCellSize();
+                    heights = new ColumnHeights(landMesh, cellSize.x, cellSize.z, heightColumns);
+                }
             } else {
-                land = null;
                 log.debug("Empty mesh.");
             }
+            builtLand = new LandPacket(geom, bins, heights);
             long end = System.nanoTime();
             
             if( log.isInfoEnabled() ) {
                 log.info("Total generation time:" + ((end-start)/1000000.0) + " ms");
                 log.info("  Density field:" + ((time1-start)/1000000.0) + " ms");
                 log.info("  Mesh generation:" + ((time2-time1)/1000000.0) + " ms");
-                log.info("  Collision data generation:" + ((end-time2)/1000000.0) + " ms");
+                log.info("  Collision data and bin generation:" + ((end-time2)/1000000.0) + " ms");
             }
         } finally {
             accessLock.unlock();
@@ -240,10 +326,24 @@ public class IsoTerrainZone implements Zone {
         if( !accessLock.tryLock() ) {
             throw new IllegalStateException("Thread is still building.");
         }
-        try {        
+        try {
+            LandPacket packet = builtLand;
+            if( packet == null ) {
+                return;
+            }
+            builtLand = null;
+            
+            // Swap the new land in and let the builder free the
+            // old one's buffers in the background.
             if( land != null ) {
-                node.attachChild(land);
+                land.detach();
+                builder.releaseLater(land);
             }
+            land = packet;
+            land.attach(node);
+            publishedMesh = land.getMesh();
+            publishedBins = land.bins;
+            publishedHeights = land.heights;
         } finally {
             accessLock.unlock();
         }
@@ -258,19 +358,18 @@ public class IsoTerrainZone implements Zone {
         if( !accessLock.tryLock() ) {
             throw new IllegalStateException("Thread is still building.");
         }
-        try {        
-            // Should queue the buffers to be freed
-            // or something.
-            // ...for now we will free them directly.
-            if( land != null ) {
-                Mesh mesh = ((Geometry)land).getMesh();
-                for( VertexBuffer vb : mesh.getBufferList() ) {
-                    if( log.isTraceEnabled() ) {
-                        log.trace("--destroying buffer:" + vb );
-                    }
-                    BufferUtils.destroyDirectBuffer( vb.getData() );
-                }
-            }
+        try {
+            // The zone root is detached by the pager right after
+            // this so the buffers can be freed in the background.
+            publishedMesh = null;
+            publishedBins = null;
+            publishedHeights = null;
+            builder.releaseLater(land);
+            land = null;
+            
+            // Release anything we may have built but not applied
+            builder.releaseLater(builtLand);
+            builtLand = null;
         } finally {
             accessLock.unlock();
         }        
@@ -295,6 +394,51 @@ public class IsoTerrainZone implements Zone {
     public String toString() {
         return "IsoLandReference[" + xCell + ", " + yCell + ", " + zCell + "]";
     }
+ 
+    /**
+     *  The land geometry produced by a single build().  Geom
+     *  is null if the volume produced no mesh.
+     */
+    private class LandPacket implements ApplyPacket {
+        private Spatial geom;
+        private TriangleBins bins;
+        private ColumnHeights heights;
+        
+        public LandPacket( Spatial geom, TriangleBins bins, ColumnHeights heights ) {
+            this.geom = geom;
+            this.bins = bins;
+            this.heights = heights;
+        }
+        
+        public void attach( Node parent ) {
+            if( geom != null ) {
+                parent.attachChild(geom);
+            }
+        }
+        
+        public void detach() {
+            if( geom != null ) {
+                geom.removeFromParent();
+            }
+        }
+        
+        public Mesh getMesh() {
+            return geom == null ? null : ((Geometry)geom).getMesh();
+        }
+        
+        @Override
+        public void release() {
+            if( geom == null ) {
+                return;
+            }
+            BufferReclaimer.getInstance().reclaim(getMesh());
+        }
+        
+        @Override
+        public String toString() {
+            return "LandPacket[" + IsoTerrainZone.this + "]";
+        }
+    }
 }
 
 
@@ -59,6 +59,7 @@ public class IsoTerrainZoneFactory implements ZoneFactory {
     private Vector3f volumeOffset;
     private Material terrainMaterial;
     private boolean generateCollisionData;
+    private float triangleBinSize = IsoTerrainZone.DEFAULT_TRIANGLE_BIN_SIZE;
 
     public IsoTerrainZoneFactory( DensityVolume worldVolume,
                                   Vector3f volumeSize, Vector3f volumeOffset,
@@ -73,13 +74,25 @@ public class IsoTerrainZoneFactory implements ZoneFactory {
         this.generateCollisionData = generateCollisionData;                               
     }
     
+    /**
+     *  Sets the x/z size of the triangle bins that the created zones
+     *  build for their child zones.  0 turns off the bins.
+     */
+    public void setTriangleBinSize( float size ) {
+        this.triangleBinSize = size;
+    }
+    
+    public float getTriangleBinSize() {
+        return triangleBinSize;
+    }
+    
     public Zone createZone( PagedGrid pg, int xCell, int yCell, int zCell ) {
 
         IsoTerrainZone result = new IsoTerrainZone(xCell, yCell, zCell, pg.getGrid(), 
                                                    volumeSize, volumeOffset, worldVolume,
                                                    generator, terrainMaterial,
                                                    generateCollisionData);
-        
+        result.setTriangleBinSize(triangleBinSize);
         return result; 
     }
 }
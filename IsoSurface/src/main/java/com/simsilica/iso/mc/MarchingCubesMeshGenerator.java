@@ -39,7 +39,7 @@ package com.simsilica.iso.mc;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.VertexBuffer.Type;
-import com.jme3.util.BufferUtils;
+import com.simsilica.builder.DirectBufferPool;
 import com.simsilica.iso.DensityVolume;
 import com.simsilica.iso.MeshGenerator;
 import java.nio.FloatBuffer;
@@ -334,12 +334,16 @@ public class MarchingCubesMeshGenerator implements MeshGenerator {
         Vector3f[] normArray = new Vector3f[normals.size()];
         normArray = normals.toArray(normArray);
 
+        // Draw the buffers from the pool.  They go back to it when
+        // the zone's mesh is reclaimed.  The pool only holds them 
+        // weakly so callers that just drop the mesh don't leak.
+        DirectBufferPool pool = DirectBufferPool.getInstance();
         Mesh mesh = new Mesh();
-        FloatBuffer pb = BufferUtils.createFloatBuffer(vertArray);
+        FloatBuffer pb = pool.getVector3Buffer(vertArray);
         mesh.setBuffer(Type.Position, 3, pb);
-        FloatBuffer nb = BufferUtils.createFloatBuffer(normArray);
+        FloatBuffer nb = pool.getVector3Buffer(normArray);
         mesh.setBuffer(Type.Normal, 3, nb);        
-        IntBuffer ib = BufferUtils.createIntBuffer(triIndexes);
+        IntBuffer ib = pool.getIntBuffer(triIndexes);
         mesh.setBuffer(Type.Index, 3, ib);
         
         mesh.updateBound();
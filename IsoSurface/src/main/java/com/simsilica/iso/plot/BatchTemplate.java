@@ -37,6 +37,7 @@
 package com.simsilica.iso.plot;
 
 import com.jme3.math.FastMath;
+import com.jme3.math.Matrix3f;
 import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Geometry;
@@ -44,13 +45,18 @@ import com.jme3.scene.Mesh;
 import com.jme3.scene.VertexBuffer;
 import com.jme3.scene.VertexBuffer.Format;
 import com.jme3.scene.VertexBuffer.Type;
-import com.jme3.util.BufferUtils;
+import com.jme3.scene.mesh.IndexBuffer;
+import com.simsilica.builder.DirectBufferPool;
 import java.nio.Buffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 
 /**
@@ -63,10 +69,24 @@ import java.util.Random;
  *  @author    Paul Speed
  */
 public class BatchTemplate {
+
+    /**
+     *  The number of template vertexes that each parallel batching
+     *  task will try to write.
+     */
+    public static final int BATCH_CHUNK_VERTEXES = 16384;
+    
+    /**
+     *  The most vertexes that a batch can have and still use
+     *  16 bit indexes.
+     */
+    public static final int MAX_SHORT_VERTEXES = 65536;
+
     private Geometry sourceGeom;
     private Mesh source;
     private VertexBuffer[] templates;
     private boolean intIndex;
+    private SourceData sourceData;
     
     public BatchTemplate( Geometry sourceGeom, boolean intIndex ) {
         this.sourceGeom = sourceGeom;
@@ -137,152 +157,334 @@ public class BatchTemplate {
     }
 
     public Geometry createBatch( List<BatchInstance> instances ) {
+        return createBatch(instances, null);
+    }
+    
+    /**
+     *  Creates one mesh containing a transformed copy of the template for
+     *  each of the specified instances, or returns null if there are no
+     *  instances.  The mesh will use 16 bit indexes if all of its vertexes 
+     *  can be reached with them and 32 bit indexes otherwise.  See
+     *  createBatches() for the executor.
+     */
+    public Geometry createBatch( List<BatchInstance> instances, ExecutorService executor ) {
+        if( instances.isEmpty() ) {
+            return null;
+        }
+        SourceData src = getSourceData();
+        InstanceTransforms xforms = new InstanceTransforms(instances);
+        return createBatch(src, xforms, 0, instances.size(), executor);
+    }
+    
+    /**
+     *  Creates one or more meshes that together contain a transformed copy 
+     *  of the template for each of the specified instances.  Each instance's 
+     *  rotation, scale, and position are converted to a 3x4 matrix once and 
+     *  then every instance is written to its own fixed range of the target 
+     *  buffers.  If this template was created to prefer int indexes then 
+     *  this is the same as createBatch().  Otherwise, the instances are 
+     *  split across as many geometries as it takes for each of them to use 
+     *  16 bit indexes.
+     *  If an executor is provided then larger batches are split into ranges 
+     *  of instances that are written in parallel and this method waits for
+     *  them to finish.  The executor must not be one whose threads might be 
+     *  waiting on this call.
+     */
+    public List<Geometry> createBatches( List<BatchInstance> instances, ExecutorService executor ) {
+        List<Geometry> results = new ArrayList<Geometry>();
+        if( instances.isEmpty() ) {
+            return results;
+        }
         
-        Vector3f offset = sourceGeom.getWorldTranslation();
+        SourceData src = getSourceData();
+        InstanceTransforms xforms = new InstanceTransforms(instances);
+        int instanceCount = instances.size();
         
-        int templateVertexCount = source.getVertexCount();
+        // A template that can't fit in short indexes by itself gets
+        // one instance per geometry and int indexes
+        int perBatch = instanceCount;
+        if( !intIndex ) {
+            perBatch = Math.max(1, MAX_SHORT_VERTEXES / Math.max(1, src.vertexCount));
+        }
+        for( int i = 0; i < instanceCount; i += perBatch ) {
+            results.add(createBatch(src, xforms, i, Math.min(instanceCount, i + perBatch), executor));
+        }        
+        return results;
+    }
+    
+    private Geometry createBatch( final SourceData src, final InstanceTransforms xforms, 
+                                  final int start, final int end, ExecutorService executor ) {
+ 
+        int instanceCount = end - start;
+        int vertexCount = instanceCount * src.vertexCount;
+        int indexCount = instanceCount * src.indexes.length;
         
-        FloatBuffer tPos = source.getFloatBuffer(Type.Position).duplicate();
-        FloatBuffer tNorm = source.getFloatBuffer(Type.Normal);
-        if( tNorm != null ) {
-            tNorm = tNorm.duplicate();
-        }
-        FloatBuffer tTex = source.getFloatBuffer(Type.TexCoord).duplicate();
-        FloatBuffer tTan = source.getFloatBuffer(Type.Tangent);
-        if( tTan != null ) {
-            tTan = tTan.duplicate();
-        }
-        FloatBuffer tSize = source.getFloatBuffer(Type.Size);
-        if( tSize != null ) {
-            tSize = tSize.duplicate();
-        }
-        ShortBuffer tIndex = source.getShortBuffer(Type.Index).duplicate();
-         
-        int texComponents = source.getBuffer(Type.TexCoord).getNumComponents();
-                  
-        int triCount = instances.size() * source.getTriangleCount();
-        FloatBuffer pb = BufferUtils.createVector3Buffer(triCount * 3);        
-        FloatBuffer nb = null;
-        if( tNorm != null ) {
-            nb = BufferUtils.createVector3Buffer(triCount * 3);
-        }
-        FloatBuffer tb = BufferUtils.createVector2Buffer(triCount * texComponents);
-        FloatBuffer tanb = null;
-        if( tTan != null ) {
-            tanb = BufferUtils.createVector2Buffer(triCount * 3);
-        }
-        FloatBuffer sizeb = null;
-        if( tSize != null ) {
-            sizeb = BufferUtils.createFloatBuffer(triCount * 3);
-        }
-        ShortBuffer ibShort = null;
-        IntBuffer ibInt = null;
-        if( triCount * 3 <= 0xffff ) {
-            ibShort = (ShortBuffer)VertexBuffer.createBuffer(Format.UnsignedShort, 3, triCount);
+        DirectBufferPool pool = DirectBufferPool.getInstance();
+        final BatchBuffers target = new BatchBuffers();
+        target.pb = pool.getFloatBuffer(vertexCount * 3);        
+        if( src.normals != null ) {
+            target.nb = pool.getFloatBuffer(vertexCount * 3);
+        }
+        target.tb = pool.getFloatBuffer(vertexCount * src.texComponents);
+        if( src.tangents != null ) {
+            target.tanb = pool.getFloatBuffer(vertexCount * src.tanComponents);
+        }
+        if( src.sizes != null ) {
+            target.sizeb = pool.getFloatBuffer(vertexCount);
+        }
+        if( vertexCount <= MAX_SHORT_VERTEXES ) {
+            target.ibShort = pool.getShortBuffer(indexCount);
         } else {       
-            ibInt = (IntBuffer)VertexBuffer.createBuffer(Format.UnsignedInt, 3, triCount);
+            target.ibInt = pool.getIntBuffer(indexCount);
         }       
- 
-        Vector3f point = new Vector3f();
-        Vector3f localOffset = new Vector3f();
- 
-        int lastIndex = 0;
-        for( BatchInstance instance : instances ) { 
-            Vector3f p1 = instance.position;
-            Quaternion rot = instance.rotation;
-            float scale = instance.scale;
-            
-            tPos.rewind();
-            if( tNorm != null ) {
-                tNorm.rewind();
-            }
-            tTex.rewind();
-            if( tTan != null ) {
-                tTan.rewind();
-            }
-            if( tSize != null ) {
-                tSize.rewind();
+        
+        int chunkSize = Math.max(1, BATCH_CHUNK_VERTEXES / Math.max(1, src.vertexCount));
+        if( executor == null || instanceCount <= chunkSize ) {
+            writeInstances(src, xforms, target, start, start, end);
+        } else {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for( int i = start; i < end; i += chunkSize ) {
+                final int first = i;
+                final int last = Math.min(end, i + chunkSize);
+                futures.add(executor.submit(new Runnable() {
+                        public void run() {
+                            writeInstances(src, xforms, target, start, first, last);
+                        }
+                    }));
+            }            
+            try {
+                for( Future<?> f : futures ) {
+                    f.get();
+                }
+            } catch( InterruptedException e ) {
+                throw new RuntimeException("Interrupted batching:" + sourceGeom, e);
+            } catch( ExecutionException e ) {
+                throw new RuntimeException("Error batching:" + sourceGeom, e.getCause());
             }
-  
-            for( int v = 0; v < templateVertexCount; v++ ) {
-                point.set(tPos.get(), tPos.get(), tPos.get());
-                rot.mult(point, point);
+        }
  
-                localOffset.set(offset);
-                localOffset.multLocal(scale);
-                rot.mult(localOffset, localOffset); 
+        Mesh batch = new Mesh();
+        batch.setBuffer(Type.Position, 3, target.pb);
+        if( target.nb != null ) {
+            batch.setBuffer(Type.Normal, 3, target.nb);
+        }
+        batch.setBuffer(Type.TexCoord, src.texComponents, target.tb);
+        if( target.tanb != null ) {
+            batch.setBuffer(Type.Tangent, src.tanComponents, target.tanb);
+        }
+        if( target.sizeb != null ) {
+            batch.setBuffer(Type.Size, 1, target.sizeb);
+        }
+        if( target.ibShort != null ) {
+            batch.setBuffer(Type.Index, 3, target.ibShort);
+        } else {
+            batch.setBuffer(Type.Index, 3, target.ibInt);
+        }
+        batch.updateBound();
  
-                pb.put((point.x * scale) + p1.x + localOffset.x); 
-                pb.put((point.y * scale) + p1.y + localOffset.y); 
-                pb.put((point.z * scale) + p1.z + localOffset.z);
-             
-                if( nb != null ) {
-                    point.set(tNorm.get(), tNorm.get(), tNorm.get());
-                    rot.mult(point, point);
+        Geometry result = new Geometry("batch:" + sourceGeom.getName(), batch);
+        result.setMaterial(sourceGeom.getMaterial());
+        result.setQueueBucket(sourceGeom.getQueueBucket());        
+        return result;                                          
+    }
+ 
+    /**
+     *  Writes the template for instances first through last-1 of a batch
+     *  that begins with instance 'start'.  Absolute puts are used so that 
+     *  separate ranges can be written by separate threads without sharing 
+     *  any buffer state.
+     */
+    private static void writeInstances( SourceData src, InstanceTransforms xforms,
+                                        BatchBuffers target, int start, int first, int last ) {
+        int vertexCount = src.vertexCount;
+        int texComponents = src.texComponents;
+        int tanComponents = src.tanComponents;
+        int[] indexes = src.indexes;
+        float[] transforms = xforms.transforms;
+        
+        for( int i = first; i < last; i++ ) {
+            int m = i * 12;
+            float m00 = transforms[m++];
+            float m01 = transforms[m++];
+            float m02 = transforms[m++];
+            float tx = transforms[m++];
+            float m10 = transforms[m++];
+            float m11 = transforms[m++];
+            float m12 = transforms[m++];
+            float ty = transforms[m++];
+            float m20 = transforms[m++];
+            float m21 = transforms[m++];
+            float m22 = transforms[m++];
+            float tz = transforms[m++];
+            float scale = xforms.scales[i];
+            
+            int base = (i - start) * vertexCount;
+            for( int v = 0; v < vertexCount; v++ ) {
+                int in = v * 3;
+                int out = (base + v) * 3;
+                float x = src.positions[in];
+                float y = src.positions[in + 1];
+                float z = src.positions[in + 2];
+                target.pb.put(out, (m00 * x + m01 * y + m02 * z) * scale + tx);                
+                target.pb.put(out + 1, (m10 * x + m11 * y + m12 * z) * scale + ty);                
+                target.pb.put(out + 2, (m20 * x + m21 * y + m22 * z) * scale + tz);
                 
-                    nb.put(point.x); 
-                    nb.put(point.y); 
-                    nb.put(point.z);
+                if( target.nb != null ) {
+                    x = src.normals[in];
+                    y = src.normals[in + 1];
+                    z = src.normals[in + 2];
+                    target.nb.put(out, m00 * x + m01 * y + m02 * z);                
+                    target.nb.put(out + 1, m10 * x + m11 * y + m12 * z);                
+                    target.nb.put(out + 2, m20 * x + m21 * y + m22 * z);
                 }
- 
-                for( int t = 0; t < texComponents; t++ ) {               
-                    tb.put(tTex.get()); 
-                } 
- 
-                if( tanb != null ) {               
-                    point.set(tTan.get(), tTan.get(), tTan.get());
-                    rot.mult(point, point);
-                    tanb.put(point.x); 
-                    tanb.put(point.y);
-                    tanb.put(point.z);
+                
+                in = v * texComponents;
+                out = (base + v) * texComponents;
+                for( int t = 0; t < texComponents; t++ ) {
+                    target.tb.put(out + t, src.texCoords[in + t]);
+                }
+                
+                if( target.tanb != null ) {
+                    // Only the direction rotates, any w is copied as is
+                    in = v * tanComponents;
+                    out = (base + v) * tanComponents;
+                    x = src.tangents[in];
+                    y = src.tangents[in + 1];
+                    z = src.tangents[in + 2];
+                    target.tanb.put(out, m00 * x + m01 * y + m02 * z);                
+                    target.tanb.put(out + 1, m10 * x + m11 * y + m12 * z);                
+                    target.tanb.put(out + 2, m20 * x + m21 * y + m22 * z);
+                    for( int t = 3; t < tanComponents; t++ ) {
+                        target.tanb.put(out + t, src.tangents[in + t]);
+                    }
                 }
                 
-                if( sizeb != null ) {
-                    sizeb.put(tSize.get());
-                }                                
+                if( target.sizeb != null ) {
+                    target.sizeb.put(base + v, src.sizes[v]);
+                }
             }
             
-            tIndex.rewind();
-         
-            if( ibShort != null ) {               
-                for( int t = 0; t < source.getTriangleCount(); t++ ) {
-                    ibShort.put((short)(tIndex.get() + lastIndex));
-                    ibShort.put((short)(tIndex.get() + lastIndex));
-                    ibShort.put((short)(tIndex.get() + lastIndex));
+            int out = (i - start) * indexes.length;
+            if( target.ibShort != null ) {
+                for( int t = 0; t < indexes.length; t++ ) {
+                    target.ibShort.put(out + t, (short)(indexes[t] + base));
                 }
-            } else if( ibInt != null ) {
-                for( int t = 0; t < source.getTriangleCount(); t++ ) {
-                    ibInt.put(tIndex.get() + lastIndex);
-                    ibInt.put(tIndex.get() + lastIndex);
-                    ibInt.put(tIndex.get() + lastIndex);
+            } else {
+                for( int t = 0; t < indexes.length; t++ ) {
+                    target.ibInt.put(out + t, indexes[t] + base);
                 }
             }
-            lastIndex += templateVertexCount;  
         }
+    }
  
-        Mesh batch = new Mesh();
-        batch.setBuffer(Type.Position, 3, pb);
-        if( nb != null ) {
-            batch.setBuffer(Type.Normal, 3, nb);
+    private synchronized SourceData getSourceData() {
+        if( sourceData == null ) {
+            sourceData = new SourceData(source);
         }
-        batch.setBuffer(Type.TexCoord, texComponents, tb);
-        if( tanb != null ) {
-            batch.setBuffer(Type.Tangent, 3, tanb);
-        }
-        if( sizeb != null ) {
-            batch.setBuffer(Type.Size, 1, sizeb);
+        return sourceData;
+    }
+ 
+    private static float[] toArray( FloatBuffer fb ) {
+        if( fb == null ) {
+            return null;
         }
-        if( ibShort != null ) {
-            batch.setBuffer(Type.Index, 3, ibShort);
-        } else if( ibInt != null ) {
-            batch.setBuffer(Type.Index, 3, ibInt);
+        fb = fb.duplicate();
+        fb.rewind();
+        float[] result = new float[fb.limit()];
+        fb.get(result);
+        return result;
+    }
+ 
+    /**
+     *  The template mesh data copied into arrays so that it can be
+     *  read by any number of threads at once.
+     */
+    private static class SourceData {
+        int vertexCount;
+        int triangleCount;
+        int texComponents;
+        int tanComponents;
+        float[] positions;
+        float[] normals;
+        float[] texCoords;
+        float[] tangents;
+        float[] sizes;
+        int[] indexes;
+        
+        public SourceData( Mesh mesh ) {
+            this.vertexCount = mesh.getVertexCount();
+            this.triangleCount = mesh.getTriangleCount();
+            this.positions = toArray(mesh.getFloatBuffer(Type.Position));
+            this.normals = toArray(mesh.getFloatBuffer(Type.Normal));
+            this.texCoords = toArray(mesh.getFloatBuffer(Type.TexCoord));
+            this.texComponents = mesh.getBuffer(Type.TexCoord).getNumComponents();
+            this.tangents = toArray(mesh.getFloatBuffer(Type.Tangent));
+            if( tangents != null ) {
+                this.tanComponents = mesh.getBuffer(Type.Tangent).getNumComponents();
+            }
+            this.sizes = toArray(mesh.getFloatBuffer(Type.Size));
+            
+            // The source may have byte, short, or int indexes.  A mesh 
+            // without indexes just uses its vertexes in order.
+            IndexBuffer ib = mesh.getIndexBuffer();
+            this.indexes = new int[triangleCount * 3];
+            for( int i = 0; i < indexes.length; i++ ) {
+                indexes[i] = ib == null ? i : ib.get(i);
+            }
         }
-        batch.updateBound();
+    }
  
-        Geometry result = new Geometry("batch:" + sourceGeom.getName(), batch);
-        result.setMaterial(sourceGeom.getMaterial());
-        result.setQueueBucket(sourceGeom.getQueueBucket());        
-        return result;                                          
+    /**
+     *  The per-instance 3x4 rotation + translation matrixes and scales.
+     *  The template's offset is already part of the translation.
+     */
+    private class InstanceTransforms {
+        float[] transforms;
+        float[] scales;
+        
+        public InstanceTransforms( List<BatchInstance> instances ) {
+            int count = instances.size();
+            this.transforms = new float[count * 12];
+            this.scales = new float[count];
+            
+            Vector3f offset = sourceGeom.getWorldTranslation();
+            Matrix3f rot = new Matrix3f();
+            Vector3f trans = new Vector3f();
+            int m = 0;
+            for( int i = 0; i < count; i++ ) {
+                BatchInstance instance = instances.get(i);
+                instance.rotation.toRotationMatrix(rot);
+                rot.mult(offset, trans);
+                trans.multLocal(instance.scale).addLocal(instance.position);
+            
+                transforms[m++] = rot.get(0, 0);
+                transforms[m++] = rot.get(0, 1);
+                transforms[m++] = rot.get(0, 2);
+                transforms[m++] = trans.x;
+                transforms[m++] = rot.get(1, 0);
+                transforms[m++] = rot.get(1, 1);
+                transforms[m++] = rot.get(1, 2);
+                transforms[m++] = trans.y;
+                transforms[m++] = rot.get(2, 0);
+                transforms[m++] = rot.get(2, 1);
+                transforms[m++] = rot.get(2, 2);
+                transforms[m++] = trans.z;
+                scales[i] = instance.scale;
+            }
+        }
+    }
+    
+    /**
+     *  The target buffers for one batch.
+     */
+    private static class BatchBuffers {
+        FloatBuffer pb;
+        FloatBuffer nb;
+        FloatBuffer tb;
+        FloatBuffer tanb;
+        FloatBuffer sizeb;
+        ShortBuffer ibShort;
+        IntBuffer ibInt;
     }
 
     // This method is more elegant and will handle any mesh...
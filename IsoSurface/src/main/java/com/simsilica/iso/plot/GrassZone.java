@@ -36,16 +36,27 @@
 
 package com.simsilica.iso.plot;
 
+import com.jme3.bounding.BoundingBox;
 import com.jme3.material.Material;
 import com.jme3.math.FastMath;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.queue.RenderQueue.Bucket;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
 import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.VertexBuffer.Format;
 import com.jme3.scene.VertexBuffer.Type;
-import com.jme3.util.BufferUtils;
+import com.jme3.scene.VertexBuffer.Usage;
+import com.simsilica.builder.ApplyPacket;
 import com.simsilica.builder.Builder;
+import com.simsilica.builder.BuilderReference;
+import com.simsilica.builder.BufferReclaimer;
+import com.simsilica.builder.DirectBufferPool;
+import com.simsilica.iso.IsoTerrainZone;
+import com.simsilica.iso.tri.MeshTriangles;
+import com.simsilica.iso.tri.TriangleBins;
+import com.simsilica.iso.tri.TriangleChunks;
 import com.simsilica.iso.tri.TriangleUtils;
 import com.simsilica.iso.tri.Triangle;
 import com.simsilica.iso.tri.TriangleProcessor;
@@ -55,11 +66,13 @@ import com.simsilica.pager.Grid;
 import com.simsilica.pager.PagedGrid;
 import com.simsilica.pager.Zone;
 import com.simsilica.pager.ZoneFactory;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -77,21 +90,44 @@ public class GrassZone extends AbstractZone {
 
     private Material material;
     private BilinearArray noise;
-    private Mesh grassMesh;
-    private Geometry grassGeom;
-    private Geometry builtGeom;
+    private boolean useInstancing;
+    private ExecutorService plotExecutor;
+    private GrassPacket applied;
+    private volatile GrassPacket built;
     
     // For informational purposes, I just want to know what
     // the largest blade count generated for a zone is.
     private static int maxBladeCount = 0;
+    
+    // The x/z size of the sub-cells that blades are grouped into for
+    // back to front sorting.
+    private static final float SUB_CELL_SIZE = 2;
+    
+    // The per-blade attributes for instanced grass.  JME names shader 
+    // attributes after the buffer type so these are inInstanceData and 
+    // inTexCoord2 in Grass.vert.
+    private static final Type BLADE_POSITION = Type.InstanceData;
+    private static final Type BLADE_PARAMS = Type.TexCoord2;
+    
+    // Every instanced blade is the same three corners.  Only x is used
+    // and it is the fractional texture coordinate that the baked blades
+    // use to tell the corners apart.
+    private static final float[] BLADE_CORNERS = { 0.25f, 0, 0,  0.5f, 0, 0,  0, 0, 0 };
 
-    private List<Blade> grassBlades;
+    private Blades grassBlades;
+    private BladeCells grassCells;
     private int xGrid;
     private int zGrid;
     private float xWorld;
     private float zWorld;
     private Vector3f sortOrigin = new Vector3f();
-    private DistanceComparator distanceSort = new DistanceComparator(); 
+    
+    // View dependent resorting is done as its own small builder job.
+    // The builder coalesces repeated requests so when the camera moves
+    // continuously only the latest sort origin is ever processed.
+    private Builder builder;
+    private SortJob sortJob = new SortJob();
+    private volatile BladeCells appliedCells;
 
     public GrassZone( Grid grid, Material material, BilinearArray noise, int xCell, int yCell, int zCell ) {
         super(grid, xCell, yCell, zCell);
@@ -101,6 +137,33 @@ public class GrassZone extends AbstractZone {
         this.zWorld = grid.toWorldZ(zCell);
     }
     
+    /**
+     *  Set to true to render the blades as hardware instances of a single
+     *  three corner blade instead of baking three vertexes per blade.  The
+     *  material must have its UseInstancing parameter set to match.
+     */
+    public void setUseInstancing( boolean b ) {
+        this.useInstancing = b;
+    }
+    
+    public boolean getUseInstancing() {
+        return useInstancing;
+    }
+ 
+    /**
+     *  Sets an executor that is used to plot large sets of triangles 
+     *  in parallel chunks.  The blades are merged back in triangle order 
+     *  so the results are the same as plotting them all on the build 
+     *  thread.  Defaults to null for no parallel plotting.
+     */   
+    public void setPlotExecutor( ExecutorService plotExecutor ) {
+        this.plotExecutor = plotExecutor;
+    }
+    
+    public ExecutorService getPlotExecutor() {
+        return plotExecutor;
+    }
+    
     @Override
     public boolean setRelativeGridLocation( int x, int y, int z ) {
         if( xGrid == x && zGrid == z ) {
@@ -127,11 +190,13 @@ public class GrassZone extends AbstractZone {
         if( sortOrigin.x == x && sortOrigin.z == z ) {
             return false;
         }
-        if( grassBlades == null ) {
+        if( applied == null ) {
             return false;
         }
-                
-        sortOrigin.set(x, 0, z);
+        
+        synchronized(sortOrigin) {                
+            sortOrigin.set(x, 0, z);
+        }
 
         boolean resort = force;
         if( xGrid == 0 && zGrid == 0 ) {
@@ -150,58 +215,53 @@ public class GrassZone extends AbstractZone {
         }
 
         if( resort ) {
-            updateSort();
+            requestSort();
         }
         return resort;
     }
-            
-    protected void updateSort() {
  
-        //long start = System.nanoTime();
-                       
-        Collections.sort(grassBlades, distanceSort);
-        //long mid = System.nanoTime();
-        
-        // Update the mesh if we have one
-        if( grassGeom == null ) {
+    /**
+     *  Queues a background resort of the applied grass for the current
+     *  sort origin.  The new index buffer is swapped in when the builder
+     *  applies it.  Nothing is done to the live mesh on this thread.
+     */           
+    protected void requestSort() {
+        if( applied == null || applied.geom == null || builder == null ) {
             return;
         }
-        Mesh mesh = grassGeom.getMesh();
-        FloatBuffer pb = mesh.getFloatBuffer(Type.Position);
-        FloatBuffer tb = mesh.getFloatBuffer(Type.TexCoord);
-        FloatBuffer nb = mesh.getFloatBuffer(Type.Normal);
-        
-        pb.rewind();
-        tb.rewind();
-        nb.rewind();
+        builder.build(sortJob);
+    }
  
-        for( Blade blade : grassBlades ) {       
-            Vector3f p1 = blade.pos;
-            Vector3f normal = blade.dir;
-            Float size = blade.size * 2;
+    protected Vector3f getSortOrigin() {
+        synchronized(sortOrigin) {
+            return sortOrigin.clone();
+        }
+    }
+    
+    private void writeBlades( Blades blades, int[] order, FloatBuffer pb, FloatBuffer nb, FloatBuffer tb ) {
+        for( int i : order ) {       
+            float x = blades.x[i];
+            float y = blades.y[i];
+            float z = blades.z[i];
+            float nx = blades.nx[i];
+            float ny = blades.ny[i];
+            float nz = blades.nz[i];
+            float size = blades.size[i] * 2;
  
             // Shader billboarded triangles
-            pb.put(p1.x).put(p1.y).put(p1.z);
-            pb.put(p1.x).put(p1.y).put(p1.z);
-            pb.put(p1.x).put(p1.y).put(p1.z);
+            pb.put(x).put(y).put(z);
+            pb.put(x).put(y).put(z);
+            pb.put(x).put(y).put(z);
  
-            int i = blade.index;
+            // The blade's slot doubles as its variation index
             tb.put(i + 0.25f).put(size);
             tb.put(i + 0.5f).put(size);
             tb.put(i + 0f).put(size);
                            
-            nb.put(normal.x).put(normal.y).put(normal.z);                        
-            nb.put(normal.x).put(normal.y).put(normal.z);                        
-            nb.put(normal.x).put(normal.y).put(normal.z);
-        }        
- 
-        mesh.setBuffer(Type.Position, 3, pb);
-        mesh.setBuffer(Type.Normal, 3, nb);
-        mesh.setBuffer(Type.TexCoord, 2, tb);
-        
-        //long end = System.nanoTime();
-        //System.out.println( "Sorted " + grassBlades.size() + " grass in:" + ((mid - start)/1000000.0) + " ms" );
-        //System.out.println( "Built grass in:" + ((end - mid)/1000000.0) + " ms" );
+            nb.put(nx).put(ny).put(nz);                        
+            nb.put(nx).put(ny).put(nz);                        
+            nb.put(nx).put(ny).put(nz);
+        }
     }
     
     public void build() {
@@ -211,21 +271,39 @@ public class GrassZone extends AbstractZone {
  
         if( grassBlades == null ) {       
             GrassPlotter plotter = new GrassPlotter();
-            if( getParentZone() != null ) {       
+            for( Zone parent : getParentZones() ) {       
                 // Find the parent relative corner.  This zone could be one of
                 // several splitting up a larger zone.  To interact with the plotter
                 // we need to know what area of the parent we should be scanning.
+                // If the grids don't line up then it may also overlap more than
+                // one parent so we scan each of them.
                 Vector3f worldLoc = grid.toWorld(getXCell(), getYCell(), getZCell(), null);
-                Vector3f parentLoc = getParentZone().getWorldLocation(null);
+                Vector3f parentLoc = parent.getWorldLocation(null);
                 plotter.world = worldLoc;
                 plotter.min = worldLoc.subtract(parentLoc);
                 log.trace("Cell min:" + plotter.min);
                             
                 plotter.max = plotter.min.add(grid.getCellSize());
                 
+                // Plot right on the parent's published triangles when it
+                // has them.  The bins let us skip most of the triangles that
+                // aren't in our cell.
+                TriangleBins parentBins = parent.getZoneData(IsoTerrainZone.TRIANGLE_BINS);
+                Mesh parentMesh = parent.getZoneData(IsoTerrainZone.LAND_MESH);
+
                 // Scan the triangles for valid grass plots using the plotter.
                 long start = System.nanoTime();
-                int count = TriangleUtils.processTriangles(getParentZone().getZoneRoot(), plotter);
+                int count;
+                if( parentBins != null ) {
+                    count = TriangleChunks.visit(parentBins.getMeshTriangles(),
+                                                 parentBins.getTriangles(plotter.min.x, plotter.min.z, 
+                                                                         plotter.max.x, plotter.max.z),
+                                                 plotExecutor, plotter);
+                } else if( parentMesh != null ) {
+                    count = TriangleChunks.visit(new MeshTriangles(parentMesh), null, plotExecutor, plotter);
+                } else { 
+                    count = TriangleUtils.visitTriangles(parent.getZoneRoot(), plotter);
+                }
                 long end = System.nanoTime();
                 if( count > 0 && log.isInfoEnabled() ) {
                     log.info("Plotted grass for " + plotter.processedTriangleCount + " / " + count 
@@ -233,7 +311,8 @@ public class GrassZone extends AbstractZone {
                 }
             }
             if( !plotter.blades.isEmpty() ) {
-                grassBlades = plotter.blades;                
+                grassBlades = plotter.blades;
+                grassCells = new BladeCells(grassBlades, size.x, size.z, SUB_CELL_SIZE);
                 
                 // For statistics, let's keep track of the most number of blades
                 // that we generate
@@ -248,38 +327,52 @@ public class GrassZone extends AbstractZone {
         }
  
         if( grassBlades != null ) {
-            createGrassMesh(grassBlades);                          
+            // The blades and their sub-cells are never modified after 
+            // plotting so the packets can share them.
+            built = new GrassPacket(createGrassMesh(grassBlades, grassCells), grassCells);
+        } else {
+            built = new GrassPacket(null, null);
+        }
+    }
+
+    /**
+     *  Creates the buffers that hold the blades' draw order for the 
+     *  specified view origin.  That's the index buffer for baked grass and
+     *  the per-blade instance buffers for instanced grass.
+     */
+    private SortPacket createSortPacket( BladeCells cells, Vector3f origin ) {
+        SortPacket result = new SortPacket(cells);
+        if( useInstancing ) {
+            DirectBufferPool pool = DirectBufferPool.getInstance();
+            int count = cells.bladeOrder.length;
+            FloatBuffer positions = pool.getFloatBuffer(count * 3);
+            ByteBuffer params = pool.getByteBuffer(count * 4);
+            cells.writeInstances(positions, params, origin);
+            result.positions = positions;
+            result.params = params;
+        } else {
+            result.ib = cells.createIndexBuffer(origin);
         }
+        return result;
     }
 
-    private void createGrassMesh( List<Blade> blades ) {
+    private Geometry createGrassMesh( Blades blades, BladeCells cells ) {
+        if( useInstancing ) {
+            return createGrassGeometry(createInstancedMesh(blades, cells));
+        }
         
         int triCount = blades.size();
-        FloatBuffer pb = BufferUtils.createVector3Buffer(triCount * 3);        
-        FloatBuffer nb = BufferUtils.createVector3Buffer(triCount * 3);
-        FloatBuffer tb = BufferUtils.createVector2Buffer(triCount * 3);
+        DirectBufferPool pool = DirectBufferPool.getInstance();
+        FloatBuffer pb = pool.getFloatBuffer(triCount * 3 * 3);        
+        FloatBuffer nb = pool.getFloatBuffer(triCount * 3 * 3);
+        FloatBuffer tb = pool.getFloatBuffer(triCount * 3 * 2);
  
         int texCoordSize = 2;
  
-        for( int i = 0; i < triCount; i++ ) {
-            Blade blade = blades.get(i);
-            Vector3f p1 = blade.pos;
-            Vector3f normal = blade.dir;
-            Float size = blade.size * 2;
- 
-            // Shader billboarded triangles
-            pb.put(p1.x).put(p1.y).put(p1.z);
-            pb.put(p1.x).put(p1.y).put(p1.z);
-            pb.put(p1.x).put(p1.y).put(p1.z);
- 
-            tb.put(i + 0.25f).put(size);
-            tb.put(i + 0.5f).put(size);
-            tb.put(i + 0f).put(size);
-                           
-            nb.put(normal.x).put(normal.y).put(normal.z);                        
-            nb.put(normal.x).put(normal.y).put(normal.z);                        
-            nb.put(normal.x).put(normal.y).put(normal.z);
-        }
+        // The vertexes are written once grouped by sub-cell and it's
+        // the index buffer that gets the back to front order.
+        writeBlades(blades, cells.bladeOrder, pb, nb, tb);
+        Buffer ib = createSortPacket(cells, getSortOrigin()).ib;
  
         // For my own edification, let's compare what instancing would look
         // like to what we have here.
@@ -297,69 +390,152 @@ public class GrassZone extends AbstractZone {
         // and some kind of texture index (int or float).
         // so like 8 floats per blade.  A significant savings but
         // we'll have to see how instancing stacks up to see if it's
-        // worth it.  For rocks and trees it's a must. 
+        // worth it.  For rocks and trees it's a must.
+        // See createInstancedMesh() for the instanced version which packs
+        // each blade into 16 bytes. 
         
-        grassMesh = new Mesh();
+        Mesh grassMesh = new Mesh();
         grassMesh.setBuffer(Type.Position, 3, pb);
         grassMesh.setBuffer(Type.Normal, 3, nb);
         grassMesh.setBuffer(Type.TexCoord, texCoordSize, tb);
+        grassMesh.setBuffer(Type.Index, 3, cells.getIndexFormat(), ib);
         grassMesh.updateBound();
         
-        builtGeom = new Geometry("grass", grassMesh);
+        // Only the index buffer is ever rewritten after this so the 
+        // driver can keep the vertex data put.
+        grassMesh.getBuffer(Type.Position).setUsage(Usage.Static);
+        grassMesh.getBuffer(Type.Normal).setUsage(Usage.Static);
+        grassMesh.getBuffer(Type.TexCoord).setUsage(Usage.Static);
+        
+        return createGrassGeometry(grassMesh);
+    }
+ 
+    /**
+     *  Creates a mesh that draws one instance of a shared three corner
+     *  blade per blade of grass.  Each instance is 16 bytes: the position
+     *  as three floats and then the normal's x and z, the size, and the 
+     *  variation index as signed bytes.  The shader rebuilds the normal's
+     *  y since grass never grows on anything facing down.
+     */   
+    private Mesh createInstancedMesh( Blades blades, BladeCells cells ) {
+        SortPacket packet = createSortPacket(cells, getSortOrigin());
+        
+        Mesh grassMesh = new Mesh();
+        grassMesh.setBuffer(Type.Position, 3, DirectBufferPool.getInstance().getFloatBuffer(BLADE_CORNERS));
+        grassMesh.getBuffer(Type.Position).setUsage(Usage.Static);
+        
+        VertexBuffer positions = new VertexBuffer(BLADE_POSITION);
+        positions.setInstanceSpan(1);
+        positions.setupData(Usage.Dynamic, 3, Format.Float, packet.positions);
+        grassMesh.setBuffer(positions);
+        
+        VertexBuffer params = new VertexBuffer(BLADE_PARAMS);
+        params.setInstanceSpan(1);
+        params.setupData(Usage.Dynamic, 4, Format.Byte, packet.params);
+        grassMesh.setBuffer(params);
+ 
+        // The corners don't say anything about where the blades are so
+        // the bounds come from the blades themselves.  Blades are at most
+        // 2 units tall and wide.
+        Vector3f min = new Vector3f(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        Vector3f max = new Vector3f(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+        for( int i = 0; i < blades.size(); i++ ) {
+            min.set(Math.min(min.x, blades.x[i]), Math.min(min.y, blades.y[i]), Math.min(min.z, blades.z[i]));
+            max.set(Math.max(max.x, blades.x[i]), Math.max(max.y, blades.y[i]), Math.max(max.z, blades.z[i]));
+        }
+        min.subtractLocal(2, 2, 2);
+        max.addLocal(2, 2, 2);
+        grassMesh.setBound(new BoundingBox(min, max));
+        
+        return grassMesh; 
+    }
+    
+    private Geometry createGrassGeometry( Mesh grassMesh ) {
+        BufferReclaimer.getInstance().track(grassMesh);
+        
+        Geometry builtGeom = new Geometry("grass", grassMesh);
         builtGeom.setQueueBucket(Bucket.Transparent);
         builtGeom.setMaterial(material);
         
         // Give the built geometry a higher layer so it's
         // rendered after trees and stuff
-        builtGeom.setUserData("layer", 9);                 
+        builtGeom.setUserData("layer", 9);
+        return builtGeom;                 
     }
 
     @Override
     public void apply( Builder builder ) {
-        if( grassGeom != null ) {
-            // We have an old grass geometry to cleanup
-            grassGeom.removeFromParent();
-            release(grassGeom.getMesh());
+        GrassPacket packet = built;
+        if( packet == null ) {
+            return;
         }
-        this.grassGeom = builtGeom; 
-        if( grassGeom != null ) {
-            getZoneRoot().attachChild(grassGeom);
-            updateSort();
+        built = null;
+        
+        if( applied != null ) {
+            // We have an old grass geometry to cleanup but the
+            // builder can free its buffers in the background
+            applied.detach();
+            builder.releaseLater(applied);
         }
+        this.applied = packet;
+        this.appliedCells = packet.cells;
+        this.builder = builder;
+        applied.attach(getZoneRoot()); 
     }
 
     @Override
     public void release( Builder builder ) {
-        release(grassMesh);
+        if( builder.isManaged(sortJob) ) {
+            builder.release(sortJob);
+        }
+        appliedCells = null;
+        builder.releaseLater(applied);
+        applied = null;
+        builder.releaseLater(built);
+        built = null;
     }
     
-    protected void release( Mesh mesh ) {
-        if( mesh == null ) {
-            return;
-        }
-        for( VertexBuffer vb : mesh.getBufferList() ) {
-            if( log.isTraceEnabled() ) {
-                log.trace("--destroying buffer:" + vb);
-            }
-            BufferUtils.destroyDirectBuffer( vb.getData() );
-        }
+    protected static void release( Mesh mesh ) {
+        BufferReclaimer.getInstance().reclaim(mesh);
     }
  
-    protected class GrassPlotter implements TriangleProcessor {
+    protected class GrassPlotter implements TriangleProcessor, TriangleChunks.MergeableVisitor<GrassPlotter> {
 
-        List<Blade> blades = new ArrayList<Blade>();
-        //List<Vector3f> points = new ArrayList<Vector3f>();
-        //List<Vector3f> normals = new ArrayList<Vector3f>();
-        //List<Float> sizes = new ArrayList<Float>();
+        Blades blades = new Blades(1024);
         float threshold = FastMath.sin(FastMath.QUARTER_PI);
         Vector3f min;
         Vector3f max;
         Vector3f world;
         int processedTriangleCount;
-        int index;
+        private Triangle tri = new Triangle();
+        private byte[] noiseValues1 = new byte[4];
+        private byte[] noiseValues2 = new byte[4];
 
         public GrassPlotter() {
         }
+ 
+        /**
+         *  Returns a new plotter for the same area that collects its
+         *  own blades.
+         */       
+        @Override
+        public GrassPlotter createChunkVisitor() {
+            GrassPlotter result = new GrassPlotter();
+            result.min = min;
+            result.max = max;
+            result.world = world;
+            return result;
+        }
+ 
+        /**
+         *  Adds the blades from the specified chunk plotter after the
+         *  ones already plotted.
+         */       
+        @Override
+        public void merge( GrassPlotter chunk ) {
+            blades.addAll(chunk.blades);
+            processedTriangleCount += chunk.processedTriangleCount;
+        }
 
         private boolean inZone( Vector3f v ) {
             if( v.x < min.x || v.y < min.y || v.z < min.z ) {
@@ -371,6 +547,37 @@ public class GrassZone extends AbstractZone {
             return true;
         }
 
+        private boolean inZone( MeshTriangles source, int v ) {
+            float x = source.getX(v);
+            float y = source.getY(v);
+            float z = source.getZ(v);
+            if( x < min.x || y < min.y || z < min.z ) {
+                return false;
+            }
+            if( x > max.x || y > max.y || z > max.z ) {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void visitTriangle( MeshTriangles source, int index, int v0, int v1, int v2 ) {
+            // Do the cheap rejections right from the buffers so that
+            // we only fill in a Triangle for the ones we rasterize
+            if( !source.hasNormals() ) {
+                return;
+            }
+            if( source.getNormalY(v0) < threshold && source.getNormalY(v1) < threshold 
+                && source.getNormalY(v2) < threshold ) {
+                return;
+            }
+            if( !inZone(source, v0) || !inZone(source, v1) || !inZone(source, v2) ) {
+                return;
+            }
+            processTriangle(source.getMesh(), index, source.getTriangle(v0, v1, v2, tri));
+        }
+
+        @Override
         public void processTriangle( Mesh mesh, int index, Triangle tri ) {
             if( tri.norms[0].y < threshold && tri.norms[1].y < threshold && tri.norms[2].y < threshold ) {
                 return;
@@ -423,24 +630,28 @@ public class GrassZone extends AbstractZone {
             }
         }
         
+        /**
+         *  Plots blades on a regular grid over the triangle.  Everything is
+         *  kept in scalar locals so that nothing is allocated per triangle
+         *  or per sample.  The math is done in the same order as the old
+         *  Vector3f based version so that the blades come out exactly where
+         *  they always have.
+         */
         private void rasterize( int triIndex, Triangle tri ) {
  
             float testOffsetX = (triIndex % 2) * 0.01f;
             float testOffsetZ = (triIndex % 3) * 0.01f;
  
-            byte[] noiseValues1 = new byte[4];
-            byte[] noiseValues2 = new byte[4];
-            Vector3f pOffset = new Vector3f();
- 
             Vector3f[] verts = tri.verts;
             Vector3f[] norms = tri.norms;
- 
-            Vector3f vf0 = verts[0].clone();
-            vf0.y = 0;
-            Vector3f vf1 = verts[1].clone();
-            vf1.y = 0;
-            Vector3f vf2 = verts[2].clone();
-            vf2.y = 0; 
+            
+            float x0 = verts[0].x;
+            float y0 = verts[0].y;
+            float z0 = verts[0].z;
+            float x1 = verts[1].x;
+            float z1 = verts[1].z;
+            float x2 = verts[2].x;
+            float z2 = verts[2].z;
  
             float resolution = 0.25f;
             float plotVariation = 0.1f;
@@ -449,10 +660,10 @@ public class GrassZone extends AbstractZone {
             // in the bounding box to see if they are in the triangle.
             // Not the most efficient way as we will check 2x as many
             // points as needed but it is simple. 
-            float minX = min(verts[0].x, verts[1].x, verts[2].x);
-            float minZ = min(verts[0].z, verts[1].z, verts[2].z);
-            float maxX = max(verts[0].x, verts[1].x, verts[2].x);
-            float maxZ = max(verts[0].z, verts[1].z, verts[2].z);
+            float minX = min(x0, x1, x2);
+            float minZ = min(z0, z1, z2);
+            float maxX = max(x0, x1, x2);
+            float maxZ = max(z0, z1, z2);
  
             // Now, quantize them to even resolutions
             minX -= minX % resolution;
@@ -466,80 +677,98 @@ public class GrassZone extends AbstractZone {
             maxX -= 0.01f;
             maxZ -= 0.01f;
  
-            // Start at the Barycentric coordinates for the
-            // min corner.
-            Vector3f p = new Vector3f(minX, 0, minZ);
+            // The barycentric edge vectors and their dot products only
+            // depend on the triangle so they are calculated once.  The
+            // triangle is flattened in y.
+            float e0x = x2 - x0;
+            float e0z = z2 - z0;
+            float e1x = x1 - x0;
+            float e1z = z1 - z0;
+            float dot00 = e0x * e0x + e0z * e0z;
+            float dot01 = e0x * e1x + e0z * e1z;
+            float dot11 = e1x * e1x + e1z * e1z;
+            float invDenom = 1 / (dot00 * dot11 - dot01 * dot01);
+            
+            float yEdge2 = verts[1].y - y0;
+            float yEdge1 = verts[2].y - y0;
+            
+            float n0x = norms[0].x;
+            float n0y = norms[0].y;
+            float n0z = norms[0].z;
+            float n2x = norms[1].x - n0x;             
+            float n2y = norms[1].y - n0y;             
+            float n2z = norms[1].z - n0z;             
+            float n1x = norms[2].x - n0x;
+            float n1y = norms[2].y - n0y;
+            float n1z = norms[2].z - n0z;
+            
+            float minXZone = min.x;
+            float minYZone = min.y;
+            float minZZone = min.z;
+            float worldX = world.x;
+            float worldZ = world.z;
  
             // Rasterize
-            for( p.z = minZ; p.z < maxZ; p.z += resolution ) {
-                for( p.x = minX; p.x < maxX; p.x += resolution ) {
+            for( float pz = minZ; pz < maxZ; pz += resolution ) {
+                for( float px = minX; px < maxX; px += resolution ) {
                     // Let's add some noise to the coordinates
-                    noise.getHomogenous((world.x + (p.x - min.x)) * 0.5, 
-                                        (world.z + (p.z - min.z)) * 0.5, 
+                    noise.getHomogenous((worldX + (px - minXZone)) * 0.5, 
+                                        (worldZ + (pz - minZZone)) * 0.5, 
                                         noiseValues1);
                     float xPlotOffset = (noiseValues1[2] & 0xff) / 255f - 0.5f;                                                              
                     float zPlotOffset = (noiseValues1[3] & 0xff) / 255f - 0.5f;
-                    pOffset.set(p);
-                    pOffset.addLocal(xPlotOffset, 0, zPlotOffset);                                                              
+                    float sx = px + xPlotOffset;
+                    float sz = pz + zPlotOffset;
                          
                     // Need to find y at this location so calculate
                     // the barycentric coordinates
-                    Vector3f v0 = vf2.subtract(vf0);
-                    Vector3f v1 = vf1.subtract(vf0);
-                    Vector3f v2 = pOffset.subtract(vf0);
-            
-                    float dot00 = v0.dot(v0);
-                    float dot01 = v0.dot(v1);
-                    float dot02 = v0.dot(v2);
-                    float dot11 = v1.dot(v1);
-                    float dot12 = v1.dot(v2);
-
-                    float invDenom = 1 / (dot00 * dot11 - dot01 * dot01);
+                    float dx = sx - x0;
+                    float dz = sz - z0;
+                    float dot02 = e0x * dx + e0z * dz;
+                    float dot12 = e1x * dx + e1z * dz;
                     float u = (dot11 * dot02 - dot01 * dot12) * invDenom;
                     float v = (dot00 * dot12 - dot01 * dot02) * invDenom;                     
  
                     // Check to see if it is in the triangle                      
                     if( u >= 0 && v >= 0 && u + v < 1 ) {
                          
-                        float y2 = verts[1].y - verts[0].y;
-                        float y1 = verts[2].y - verts[0].y;
-                        float y = verts[0].y + y1 * u + y2 * v;                       
- 
-                        // We'll be handing it to the points list which is
-                        // why we need our own copy here.
-                        Vector3f plot = pOffset.clone(); 
-                        plot.y = y;
-                        plot.subtractLocal(min);
-                        plot.addLocal(testOffsetX, 0, testOffsetZ);                        
-                        
-                        Vector3f n2 = norms[1].subtract(norms[0]);             
-                        Vector3f n1 = norms[2].subtract(norms[0]);
-                        Vector3f newNorm = norms[0].add(n1.mult(u)).add(n2.mult(v));
-                        newNorm.normalizeLocal();
+                        float y = y0 + yEdge1 * u + yEdge2 * v;                       
+ 
+                        float plotX = sx - minXZone + testOffsetX;
+                        float plotY = y - minYZone + 0f;
+                        float plotZ = sz - minZZone + testOffsetZ;
+ 
+                        float nx = n0x + n1x * u + n2x * v;
+                        float ny = n0y + n1y * u + n2y * v;
+                        float nz = n0z + n1z * u + n2z * v;
+                        float length = nx * nx + ny * ny + nz * nz;
+                        if( length != 1f && length != 0f ) {
+                            length = 1.0f / FastMath.sqrt(length);
+                            nx *= length;
+                            ny *= length;
+                            nz *= length;
+                        }
  
                         // Is the normal facing up past 45 degrees?  This is the
                         // threshold for growing grass.   
-                        if( newNorm.y >= threshold ) {
+                        if( ny >= threshold ) {
  
                             // Grab some noise that we'll use to perturb the location
                             // for the real noise lookup                       
-                            noise.getHomogenous((world.x + plot.x) * 0.01, (world.z + plot.z) * 0.01, noiseValues1);
+                            noise.getHomogenous((worldX + plotX) * 0.01, (worldZ + plotZ) * 0.01, noiseValues1);
                             float xOffset = (noiseValues1[2] & 0xff) / 255f - 0.5f; 
                             float zOffset = (noiseValues1[3] & 0xff) / 255f - 0.5f;
                             
                             // And the noise to see if we plot grass here
-                            noise.getHomogenous((world.x + plot.x) * 0.07 + xOffset, (world.z + plot.z) * 0.07 + zOffset, noiseValues2);
+                            noise.getHomogenous((worldX + plotX) * 0.07 + xOffset, (worldZ + plotZ) * 0.07 + zOffset, noiseValues2);
                             float offset1 = (noiseValues1[1] & 0xff) / 255f;
                             float offset2 = ((noiseValues2[1] & 0xff) / 255f) - 0.5f;
                             
-                            float normalOffset = (newNorm.y - threshold) - ((1.0f - threshold) * 0.5f);
+                            float normalOffset = (ny - threshold) - ((1.0f - threshold) * 0.5f);
                             float offset = Math.min(1, Math.max(0, (offset1 + offset2 + normalOffset)));
  
                             if( offset > 0.1 ) {
-                                //sizes.add(offset);
-                                //points.add(plot);                                                
-                                //normals.add(newNorm);
-                                blades.add(new Blade(plot, newNorm, offset, index++));
+                                blades.add(plotX, plotY, plotZ, nx, ny, nz, offset);
                             }
                         } 
                     }
@@ -548,55 +777,425 @@ public class GrassZone extends AbstractZone {
         }   
     }
 
-    private class Blade {
-        Vector3f pos;
-        Vector3f dir;
-        float size;
-        int index;
+    /**
+     *  The grass geometry from a single build() along with the
+     *  sub-cells that its vertexes were grouped by. 
+     */
+    private class GrassPacket implements ApplyPacket {
+        Geometry geom;
+        BladeCells cells;
+        
+        public GrassPacket( Geometry geom, BladeCells cells ) {
+            this.geom = geom;
+            this.cells = cells;
+        }
+        
+        public void attach( Node parent ) {
+            if( geom != null ) {
+                parent.attachChild(geom);
+            }
+        }
+        
+        public void detach() {
+            if( geom != null ) {
+                geom.removeFromParent();
+            }
+        }
+        
+        @Override
+        public void release() {
+            if( geom != null ) {
+                GrassZone.release(geom.getMesh());
+            }
+        }
+        
+        @Override
+        public String toString() {
+            return "GrassPacket[" + GrassZone.this + "]";
+        }
+    }
+
+    /**
+     *  The plotted blades of grass stored as parallel arrays.  A blade's
+     *  slot is also its variation index in the shader.  The arrays are
+     *  only read once plotting is done so that packets can share them.
+     */
+    protected static class Blades {
+        float[] x;
+        float[] y;
+        float[] z;
+        float[] nx;
+        float[] ny;
+        float[] nz;
+        float[] size;
+        int count;
+        
+        public Blades( int capacity ) {
+            x = new float[capacity];
+            y = new float[capacity];
+            z = new float[capacity];
+            nx = new float[capacity];
+            ny = new float[capacity];
+            nz = new float[capacity];
+            size = new float[capacity];
+        }
+        
+        public int size() {
+            return count;
+        }
+        
+        public boolean isEmpty() {
+            return count == 0;
+        }
+        
+        public void addAll( Blades other ) {
+            for( int i = 0; i < other.count; i++ ) {
+                add(other.x[i], other.y[i], other.z[i], other.nx[i], other.ny[i], other.nz[i], other.size[i]);
+            }
+        }
+        
+        public int add( float px, float py, float pz, float nX, float nY, float nZ, float s ) {
+            if( count == x.length ) {
+                int capacity = Math.max(16, count * 2);
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                z = Arrays.copyOf(z, capacity);
+                nx = Arrays.copyOf(nx, capacity);
+                ny = Arrays.copyOf(ny, capacity);
+                nz = Arrays.copyOf(nz, capacity);
+                size = Arrays.copyOf(size, capacity);
+            }
+            x[count] = px;
+            y[count] = py;
+            z[count] = pz;
+            nx[count] = nX;
+            ny[count] = nY;
+            nz[count] = nZ;
+            size[count] = s;
+            return count++;
+        }
+ 
+        @Override
+        public String toString() {
+            return "Blades[" + count + "]";
+        }
+    }
+    
+    /**
+     *  Sorts the applied blade sub-cells for the latest sort origin on
+     *  a builder thread and swaps the new draw order into the applied
+     *  mesh during apply().
+     */
+    private class SortJob implements BuilderReference {
+        private volatile SortPacket sorted;
         
-        public Blade( Vector3f pos, Vector3f dir, float size, int index ) {
-            this.pos = pos;
-            this.dir = dir;
-            this.size = size;
-            this.index = index;
+        @Override
+        public int getPriority() {
+            // Resorts are cheap and visible so let them jump ahead
+            // of the zone builds
+            return -1;
+        }
+        
+        @Override
+        public void build() {
+            BladeCells cells = appliedCells;
+            if( cells == null ) {
+                return;
+            }
+            SortPacket packet = createSortPacket(cells, getSortOrigin());
+            packet.track();
+            
+            // The builder always applies us before building us again
+            // so there is never an older packet to worry about
+            sorted = packet;
+        }
+        
+        @Override
+        public void apply( Builder builder ) {
+            SortPacket packet = sorted;
+            if( packet == null ) {
+                return;
+            }
+            sorted = null;
+            
+            if( applied == null || applied.geom == null || applied.cells != packet.cells ) {
+                // Sorted for grass that we no longer have
+                builder.releaseLater(packet);
+                return;
+            }
+ 
+            // Swap the buffers and let the builder free the
+            // old ones in the background           
+            builder.releaseLater(packet.swap(applied.geom.getMesh()));
+        }
+        
+        @Override
+        public void release( Builder builder ) {
+            builder.releaseLater(sorted);
+            sorted = null;
         }
         
         @Override
         public String toString() {
-            return "Blade[" + pos + "]";
+            return "SortJob[" + GrassZone.this + "]";
         }
     }
+    
+    /**
+     *  The buffers that hold one draw order for a zone's blades.  Baked
+     *  grass only has an index buffer while instanced grass has to rewrite
+     *  its per-blade instance buffers.
+     */
+    private static class SortPacket implements ApplyPacket {
+        BladeCells cells;
+        Buffer ib;
+        Buffer positions;
+        Buffer params;
+        
+        public SortPacket( BladeCells cells ) {
+            this.cells = cells;
+        }
  
-    private class DistanceComparator implements Comparator<Blade> {
-
-        public int compare( Blade b1, Blade b2 ) {
-            float dx, dz;
-            dx = b1.pos.x - sortOrigin.x;           
-            dz = b1.pos.z - sortOrigin.z;
-            float d1 = dx * dx + dz * dz;           
-            dx = b2.pos.x - sortOrigin.x;           
-            dz = b2.pos.z - sortOrigin.z;
-            float d2 = dx * dx + dz * dz;
-            if( d1 < d2 ) 
-                return 1;
-            if( d2 < d1 ) 
-                return -1;
-            return 0;            
+        /**
+         *  Puts this packet's buffers into the specified mesh and returns a 
+         *  packet holding the buffers that they replaced.
+         */       
+        public SortPacket swap( Mesh mesh ) {
+            SortPacket old = new SortPacket(cells);
+            if( ib != null ) {
+                old.ib = mesh.getBuffer(Type.Index).getData();
+                mesh.setBuffer(Type.Index, 3, cells.getIndexFormat(), ib);
+            }
+            if( positions != null ) {
+                old.positions = mesh.getBuffer(BLADE_POSITION).getData();
+                mesh.setBuffer(BLADE_POSITION, 3, Format.Float, positions);
+                old.params = mesh.getBuffer(BLADE_PARAMS).getData();
+                mesh.setBuffer(BLADE_PARAMS, 4, Format.Byte, params);
+            }
+            return old;
+        }
+        
+        public void track() {
+            BufferReclaimer reclaimer = BufferReclaimer.getInstance();
+            reclaimer.track(ib);
+            reclaimer.track(positions);
+            reclaimer.track(params);
+        }
+        
+        @Override
+        public void release() {
+            BufferReclaimer reclaimer = BufferReclaimer.getInstance();
+            reclaimer.reclaim(ib);
+            reclaimer.reclaim(positions);
+            reclaimer.reclaim(params);
+        }
+    }
+ 
+    /**
+     *  Groups the blades by a fine x/z grid of sub-cells.  The vertexes
+     *  are written once in sub-cell order so that putting the blades back
+     *  to front for a new view only requires sorting the few hundred 
+     *  sub-cells and rewriting the index buffer.  Blades within a sub-cell
+     *  keep their plotted order.  Zones with few enough vertexes get
+     *  short indexes, which halves what each resort uploads.
+     */
+    protected static class BladeCells {
+        final Blades blades;
+        final int xCells;
+        final int zCells;
+        final float[] xCenters;
+        final float[] zCenters;
+        
+        // Blade slots grouped by sub-cell and the start of each 
+        // sub-cell's run of blades in that order.
+        final int[] bladeOrder;
+        final int[] starts;
+        
+        public BladeCells( Blades blades, float xSize, float zSize, float cellSize ) {
+            this.blades = blades;
+            this.xCells = Math.max(1, (int)Math.ceil(xSize / cellSize));
+            this.zCells = Math.max(1, (int)Math.ceil(zSize / cellSize));
+            int cellCount = xCells * zCells;
+            this.xCenters = new float[cellCount];
+            this.zCenters = new float[cellCount];
+            for( int i = 0; i < xCells; i++ ) {
+                for( int j = 0; j < zCells; j++ ) {
+                    xCenters[j * xCells + i] = (i + 0.5f) * cellSize;
+                    zCenters[j * xCells + i] = (j + 0.5f) * cellSize;
+                }
+            }
+            
+            // A counting sort into the sub-cells.  Blades can be plotted 
+            // slightly outside of the zone so they are clamped to the edge
+            // sub-cells.
+            int n = blades.size();
+            int[] cellOf = new int[n];
+            this.starts = new int[cellCount + 1];
+            for( int b = 0; b < n; b++ ) {
+                int i = Math.max(0, Math.min(xCells - 1, (int)Math.floor(blades.x[b] / cellSize)));
+                int j = Math.max(0, Math.min(zCells - 1, (int)Math.floor(blades.z[b] / cellSize)));
+                cellOf[b] = j * xCells + i;
+                starts[cellOf[b] + 1]++;
+            }
+            for( int c = 1; c <= cellCount; c++ ) {
+                starts[c] += starts[c - 1];
+            }
+            this.bladeOrder = new int[n];
+            int[] next = Arrays.copyOf(starts, cellCount);
+            for( int b = 0; b < n; b++ ) {
+                bladeOrder[next[cellOf[b]]++] = b;
+            }
+        }
+ 
+        /**
+         *  Returns the non-empty sub-cells sorted from farthest to nearest
+         *  to the specified origin in x/z.
+         */       
+        public int[] sortCells( Vector3f origin ) {
+            int cellCount = xCells * zCells;
+            long[] keys = new long[cellCount];
+            int count = 0;
+            for( int c = 0; c < cellCount; c++ ) {
+                if( starts[c] == starts[c + 1] ) {
+                    continue;
+                }
+                float dx = xCenters[c] - origin.x;           
+                float dz = zCenters[c] - origin.z;
+                float d = dx * dx + dz * dz;
+                
+                // Distances are never negative so their bits sort the same
+                // as their values.  Flip them to get farthest first.
+                keys[count++] = ((long)(Integer.MAX_VALUE - Float.floatToIntBits(d)) << 32) | c;
+            }
+            Arrays.sort(keys, 0, count);
+            int[] result = new int[count];
+            for( int i = 0; i < count; i++ ) {
+                result[i] = (int)keys[i];
+            }
+            return result;
+        }
+ 
+        /**
+         *  Returns true if every vertex can be addressed with an unsigned
+         *  short index.
+         */
+        public boolean useShortIndexes() {
+            return bladeOrder.length * 3 <= 65536;
+        }
+        
+        public Format getIndexFormat() {
+            return useShortIndexes() ? Format.UnsignedShort : Format.UnsignedInt;
+        }
+ 
+        /**
+         *  Returns a new pooled index buffer of the appropriate type with 
+         *  the blades sorted back to front for the specified view origin.
+         */       
+        public Buffer createIndexBuffer( Vector3f origin ) {
+            DirectBufferPool pool = DirectBufferPool.getInstance();
+            int size = bladeOrder.length * 3;
+            if( useShortIndexes() ) {
+                ShortBuffer sb = pool.getShortBuffer(size);
+                writeIndexes(sb, origin);
+                return sb;
+            }
+            IntBuffer ib = pool.getIntBuffer(size);
+            writeIndexes(ib, origin);
+            return ib;
+        }
+ 
+        /**
+         *  Writes the triangle indexes for all of the blades, back to front
+         *  by sub-cell for the specified view origin.
+         */       
+        public void writeIndexes( IntBuffer ib, Vector3f origin ) {
+            for( int c : sortCells(origin) ) {
+                for( int i = starts[c]; i < starts[c + 1]; i++ ) {
+                    int v = i * 3;
+                    ib.put(v).put(v + 1).put(v + 2);
+                }
+            }
+        }
+        
+        public void writeIndexes( ShortBuffer sb, Vector3f origin ) {
+            for( int c : sortCells(origin) ) {
+                for( int i = starts[c]; i < starts[c + 1]; i++ ) {
+                    int v = i * 3;
+                    sb.put((short)v).put((short)(v + 1)).put((short)(v + 2));
+                }
+            }
+        }
+ 
+        /**
+         *  Writes the per-blade instance data for all of the blades, back 
+         *  to front by sub-cell for the specified view origin.
+         */       
+        public void writeInstances( FloatBuffer positions, ByteBuffer params, Vector3f origin ) {
+            for( int c : sortCells(origin) ) {
+                for( int i = starts[c]; i < starts[c + 1]; i++ ) {
+                    int b = bladeOrder[i];
+                    positions.put(blades.x[b]).put(blades.y[b]).put(blades.z[b]);
+                    
+                    // The shader only uses the low 4 bits of the variation 
+                    // index to pick an atlas cell.
+                    params.put((byte)Math.round(blades.nx[b] * 127));
+                    params.put((byte)Math.round(blades.nz[b] * 127));
+                    params.put((byte)Math.round(blades.size[b] * 127));
+                    params.put((byte)(b & 0xf));
+                }
+            }
         }
         
+        @Override
+        public String toString() {
+            return "BladeCells[" + xCells + "x" + zCells + ", blades=" + bladeOrder.length + "]";
+        }
     }
     
     public static class Factory implements ZoneFactory {
         private Material material;
         private BilinearArray noise;
+        private boolean useInstancing;
+        private ExecutorService plotExecutor;
         
         public Factory( Material material, BilinearArray noise ) {
             this.noise = noise;
             this.material = material;
         }
         
+        /**
+         *  Set to true to have the zones render their blades with hardware
+         *  instancing.  This also sets the material's UseInstancing parameter
+         *  so it should be a Grass.j3md material.  The renderer must support 
+         *  mesh instancing.
+         */
+        public void setUseInstancing( boolean b ) {
+            this.useInstancing = b;
+            if( material != null ) {
+                material.setBoolean("UseInstancing", b);
+            }
+        }
+        
+        public boolean getUseInstancing() {
+            return useInstancing;
+        }
+ 
+        /**
+         *  Sets the executor that the zones use to plot in parallel.
+         *  See GrassZone.setPlotExecutor().
+         */       
+        public void setPlotExecutor( ExecutorService plotExecutor ) {
+            this.plotExecutor = plotExecutor;
+        }
+        
+        public ExecutorService getPlotExecutor() {
+            return plotExecutor;
+        }
+        
         public Zone createZone( PagedGrid pg, int xCell, int yCell, int zCell ) {
-            Zone result = new GrassZone(pg.getGrid(), material, noise, xCell, yCell, zCell);
+            GrassZone result = new GrassZone(pg.getGrid(), material, noise, xCell, yCell, zCell);
+            result.setUseInstancing(useInstancing);
+            result.setPlotExecutor(plotExecutor);
             return result;   
         }        
     }
@@ -37,7 +37,7 @@
 package com.simsilica.iso.plot;
 
 import com.jme3.bounding.BoundingBox;
-import com.jme3.math.Matrix4f;
+import com.jme3.math.Matrix3f;
 import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Geometry;
@@ -46,7 +46,7 @@ import com.jme3.scene.VertexBuffer;
 import com.jme3.scene.VertexBuffer.Format;
 import com.jme3.scene.VertexBuffer.Type;
 import com.jme3.scene.VertexBuffer.Usage;
-import com.simsilica.iso.util.MatrixUtils;
+import com.simsilica.builder.DirectBufferPool;
 import java.nio.FloatBuffer;
 import java.util.List;
 
@@ -75,58 +75,70 @@ public class InstanceTemplate {
         if( instances.isEmpty() ) {
             return null;
         }
+        BoundingBox bounds = new BoundingBox();
+        VertexBuffer vb = createTransforms(instances, bounds); 
+        return createInstances(vb, bounds); 
+    }
  
+    /**
+     *  Creates the per-instance transform data for the specified instances
+     *  and sets their bounds into boundsStore.  The transforms are written 
+     *  straight into a pooled direct buffer in the layout that 
+     *  MatrixUtils.createMatrixBuffer() uses: the scaled rotation matrix 
+     *  columns with the quaternion spread across their fourth components
+     *  and then the translation.  The result can be shared by every
+     *  template that is placed the same way, for example all of the parts
+     *  and LODs of the same trees.
+     */
+    public VertexBuffer createTransforms( List<BatchInstance> instances, BoundingBox boundsStore ) {
         Vector3f offset = sourceGeom.getWorldTranslation();
-       
-        // For instances, we just clone the original mesh and add
-        // in the transform instance data
-        Mesh mesh = source.clone();
- 
+        
+        FloatBuffer xb = DirectBufferPool.getInstance().getFloatBuffer(instances.size() * 16);
         Vector3f min = new Vector3f(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
         Vector3f max = new Vector3f(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
-        Matrix4f[] transforms = new Matrix4f[instances.size()];
+        Vector3f p1 = new Vector3f();
+        Matrix3f rotMat = new Matrix3f();
         for( int i = 0; i < instances.size(); i++ ) {
             BatchInstance instance = instances.get(i);
                                     
-            Vector3f p1 = instance.position;
             Quaternion rot = instance.rotation;
             float scale = instance.scale;
  
             // The offset needs to be projected
-            Vector3f localOffset = rot.mult(offset);
-            localOffset.multLocal(scale); 
-            
-            p1 = p1.add(localOffset);
+            rot.mult(offset, p1);
+            p1.multLocal(scale);
+            p1.addLocal(instance.position); 
             
             min.minLocal(p1);
             max.maxLocal(p1);
-            
  
-            Matrix4f transform = new Matrix4f();
-            transform.setRotationQuaternion(rot);
-            transform.setTranslation(p1);
-            transform.setScale(scale, scale, scale);
-            
-            transforms[i] = transform;
+            rot.toRotationMatrix(rotMat);
+            xb.put(rotMat.get(0, 0) * scale).put(rotMat.get(1, 0) * scale).put(rotMat.get(2, 0) * scale).put(rot.getX());
+            xb.put(rotMat.get(0, 1) * scale).put(rotMat.get(1, 1) * scale).put(rotMat.get(2, 1) * scale).put(rot.getY());
+            xb.put(rotMat.get(0, 2) * scale).put(rotMat.get(1, 2) * scale).put(rotMat.get(2, 2) * scale).put(rot.getZ());
+            xb.put(p1.x).put(p1.y).put(p1.z).put(rot.getW());
         }
+        xb.flip();
 
         // Note: this doesn't calculate it correctly right now
         //       so we'll do it manually and fudge it a little.                    
         //mesh.updateBound();
         min.subtractLocal(3, 1, 3);
         max.addLocal(3, 8, 3);
-        BoundingBox bounds = new BoundingBox(min, max);
+        boundsStore.setMinMax(min, max);
         
-        // Create the transform buffer
-        FloatBuffer xb = MatrixUtils.createMatrixBuffer(transforms);
-
         VertexBuffer vb = new VertexBuffer(Type.InstanceData);
         vb.setInstanceSpan(1);
         vb.setupData(Usage.Stream, 16, Format.Float, xb);
-        
-        return createInstances(vb, bounds); 
+        return vb;
     }
  
+    /**
+     *  Returns a geometry that draws this template once for each of the
+     *  specified transforms.  The returned mesh shares all of its other
+     *  buffers with the template's source mesh so only the transforms
+     *  can be freed when the geometry is no longer needed.
+     */ 
     public Geometry createInstances( VertexBuffer transforms, BoundingBox bounds ) {
     
         // For instances, we just clone the original mesh and add
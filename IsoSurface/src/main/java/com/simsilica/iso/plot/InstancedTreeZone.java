@@ -47,12 +47,18 @@ import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
 import com.jme3.scene.VertexBuffer;
 import com.jme3.scene.VertexBuffer.Type;
-import com.jme3.util.BufferUtils;
+import com.simsilica.builder.ApplyPacket;
 import com.simsilica.builder.Builder;
+import com.simsilica.builder.BufferReclaimer;
+import com.simsilica.iso.IsoTerrainZone;
+import com.simsilica.iso.tri.MeshTriangles;
+import com.simsilica.iso.tri.TriangleBins;
+import com.simsilica.iso.tri.TriangleChunks;
 import com.simsilica.iso.tri.TriangleUtils;
 import com.simsilica.iso.tri.Triangle;
 import com.simsilica.iso.tri.TriangleProcessor;
 import com.simsilica.iso.util.BilinearArray;
+import com.simsilica.iso.util.PlotHash;
 import com.simsilica.pager.AbstractZone;
 import com.simsilica.pager.Grid;
 import com.simsilica.pager.PagedGrid;
@@ -61,8 +67,7 @@ import com.simsilica.pager.ZoneFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -84,26 +89,28 @@ public class InstancedTreeZone extends AbstractZone {
     
     private TreeType[] treeTemplates;
  
-    // Two just in case we want to modify the tree plots on the
-    // fly someday   
-    private DetailLevel[] builtDetailLevels;
-    private DetailLevel[] detailLevels;
+    // Detail levels are only built when the zone first needs them.
+    // build() and apply() never run at the same time for a zone so
+    // build() can look at what apply() already has.
+    private DetailLevel[] levels = new DetailLevel[3];
+    private volatile LevelPacket built;
+    
+    // When the outstanding direct memory is over this then the
+    // levels that aren't showing are evicted.
+    public static final long DEFAULT_EVICTION_BYTES = 256L * 1024 * 1024;
+    private long evictionBytes = DEFAULT_EVICTION_BYTES;
 
     private int appliedDetailLevel = -1; 
-    private int detailLevel = 0; // 0 == closest, highest detail
+    private volatile int detailLevel = 0; // 0 == closest, highest detail
         
     // For informational purposes, I just want to know what
     // the largest blade count generated for a zone is.
     private static int maxTreeCount = 0;
     
     private TreeBin[] zoneInstances;
-
-    // Just some book-keeping left over from memory leak checks.    
-    private static AtomicInteger totalAllocationCount = new AtomicInteger();
-    private static AtomicInteger totalDestroyCount = new AtomicInteger();
-    private AtomicInteger allocationCount = new AtomicInteger();
-    private AtomicInteger destroyCount = new AtomicInteger();
-    private AtomicInteger activeBuffers = new AtomicInteger();
+    
+    private long seed;
+    private ExecutorService plotExecutor;
 
 
     public InstancedTreeZone( Grid grid, Material material, BilinearArray noise, int xCell, int yCell, int zCell,
@@ -117,6 +124,47 @@ public class InstancedTreeZone extends AbstractZone {
         }
     }
  
+    /**
+     *  Sets the world seed that the tree rotations are derived from.  
+     *  Each tree's rotation is a hash of the seed, its world location, and
+     *  its tree type so it doesn't matter which zone or thread plots it.
+     */
+    public void setSeed( long seed ) {
+        this.seed = seed;
+    }
+    
+    public long getSeed() {
+        return seed;
+    }
+ 
+    /**
+     *  Sets an executor that is used to plot large sets of triangles 
+     *  in parallel chunks.  The trees are merged back in triangle order 
+     *  so the results are the same as plotting them all on the build 
+     *  thread.  Large tree batches are also written in parallel on this 
+     *  executor.  Defaults to null for no parallel plotting.
+     */   
+    public void setPlotExecutor( ExecutorService plotExecutor ) {
+        this.plotExecutor = plotExecutor;
+    }
+    
+    public ExecutorService getPlotExecutor() {
+        return plotExecutor;
+    }
+ 
+    /**
+     *  Sets the amount of outstanding direct memory, as tracked by the
+     *  BufferReclaimer, above which detail levels that aren't currently
+     *  showing are let go.  They are rebuilt if they are needed again.
+     */
+    public void setEvictionBytes( long evictionBytes ) {
+        this.evictionBytes = evictionBytes;
+    }
+    
+    public long getEvictionBytes() {
+        return evictionBytes;
+    }
+ 
     protected boolean setDetailLevel( int i ) {
         if( this.detailLevel == i ) {
             return false;
@@ -146,25 +194,40 @@ public class InstancedTreeZone extends AbstractZone {
         Vector3f size = grid.getCellSize();
         
         if( zoneInstances == null ) {
-            long seed = (long)getXCell() << 32 | getYCell();
-            Random random = new Random(seed);
-         
-            FrequencyPlotter plotter = new FrequencyPlotter(treeTemplates.length, random);
-            if( getParentZone() != null ) {       
+            FrequencyPlotter plotter = new FrequencyPlotter(treeTemplates.length);
+            for( Zone parent : getParentZones() ) {       
                 // Find the parent relative corner.  This zone could be one of
                 // several splitting up a larger zone.  To interact with the plotter
                 // we need to know what area of the parent we should be scanning.
+                // If the grids don't line up then it may also overlap more than
+                // one parent so we scan each of them.
                 Vector3f worldLoc = grid.toWorld(getXCell(), getYCell(), getZCell(), null);
-                Vector3f parentLoc = getParentZone().getWorldLocation(null);
+                Vector3f parentLoc = parent.getWorldLocation(null);
                 plotter.world = worldLoc;
                 plotter.min = worldLoc.subtract(parentLoc);
                 log.trace("Cell min:" + plotter.min);
                             
                 plotter.max = plotter.min.add(grid.getCellSize());
                 
+                // Plot right on the parent's published triangles when it
+                // has them.  The bins let us skip most of the triangles that
+                // aren't in our cell.
+                TriangleBins parentBins = parent.getZoneData(IsoTerrainZone.TRIANGLE_BINS);
+                Mesh parentMesh = parent.getZoneData(IsoTerrainZone.LAND_MESH);
+
                 // Scan the triangles for valid grass plots using the plotter.
                 long start = System.nanoTime();
-                int count = TriangleUtils.processTriangles(getParentZone().getZoneRoot(), plotter);
+                int count;
+                if( parentBins != null ) {
+                    count = TriangleChunks.visit(parentBins.getMeshTriangles(),
+                                                 parentBins.getTriangles(plotter.min.x, plotter.min.z, 
+                                                                         plotter.max.x, plotter.max.z),
+                                                 plotExecutor, plotter);
+                } else if( parentMesh != null ) {
+                    count = TriangleChunks.visit(new MeshTriangles(parentMesh), null, plotExecutor, plotter);
+                } else { 
+                    count = TriangleUtils.visitTriangles(parent.getZoneRoot(), plotter);
+                }
                 long end = System.nanoTime();
                 if( count > 0 && log.isInfoEnabled() ) {
                     log.info("Plotted points for " + plotter.processedTriangleCount + " / " + count 
@@ -175,38 +238,40 @@ public class InstancedTreeZone extends AbstractZone {
         }
         int totalTreeCount = 0;
  
-        // For the instanced trees we will build all LOD levels at once.
-        // Essentially, all but the non-instanced levels are free because
-        // the share mesh data with the source geometry or the shared
-        // instance transforms buffer.
-        if( builtDetailLevels == null ) {
-            builtDetailLevels = new DetailLevel[3];
-            
-            for( int i = 0; i < builtDetailLevels.length; i++ ) {
-                DetailLevel level = new DetailLevel();
-                builtDetailLevels[i] = level;
+        // Only the level that we are about to show gets built.  The
+        // instanced levels are nearly free because they share mesh data 
+        // with the source geometry and a shared instance transforms buffer
+        // but the batched levels can be big.
+        int index = detailLevel;
+        if( levels[index] == null ) {
+            DetailLevel level = new DetailLevel(isBatchedLevel(index));
                 
-                for( int j = 0; j < treeTemplates.length; j++ ) {
-                    TreeType type = treeTemplates[j];
-                    TreeBin bin = zoneInstances[j];
-                    if( bin.instances.isEmpty() ) {
-                        continue;
-                    }
+            for( int j = 0; j < treeTemplates.length; j++ ) {
+                TreeType type = treeTemplates[j];
+                TreeBin bin = zoneInstances[j];
+                if( bin.instances.isEmpty() ) {
+                    continue;
+                }
  
-                    if( log.isInfoEnabled() && i == 0 ) {
-                        log.info("bin[" + j + "] Number of points plotted:" + bin.instances.size());
-                    }
-                    if( i == 0 ) {
-                        totalTreeCount += bin.instances.size();
-                    }
+                if( log.isInfoEnabled() ) {
+                    log.info("bin[" + j + "] Number of points plotted:" + bin.instances.size());
+                }
+                totalTreeCount += bin.instances.size();
                     
-                    level.parts.addAll(type.getLevel(i, bin.instances));                   
+                level.parts.addAll(type.getLevel(index, bin.instances));                   
+            }
+                
+            // Prebuild the level's node so that swapping levels
+            // is just a detach and an attach
+            for( Geometry g : level.parts ) {
+                if( g != null ) {
+                    level.node.attachChild(g);
+                    if( level.batched ) {
+                        BufferReclaimer.getInstance().track(g.getMesh());
+                    }
                 }
             }
-            
-            allocationCount.incrementAndGet();
-            totalAllocationCount.incrementAndGet();
-            activeBuffers.incrementAndGet();
+            built = new LevelPacket(index, level);
         } 
  
         // For statistics, let's keep track of the most number of trees
@@ -220,30 +285,58 @@ public class InstancedTreeZone extends AbstractZone {
         }   
     }
 
+
     @Override
     public void apply( Builder builder ) {
         
-        if( builtDetailLevels != detailLevels ) {
-            // Swapping in new levels
-            if( detailLevels != null ) {
-                release(detailLevels);
-            }
-            detailLevels = builtDetailLevels;
-            appliedDetailLevel = -1;
+        LevelPacket packet = built;
+        if( packet != null ) {
+            // Adding a newly built level
+            built = null;
+            levels[packet.index] = packet.level;
         }
  
-        if( appliedDetailLevel != detailLevel ) {
+        int index = detailLevel;
+        if( levels[index] != null && appliedDetailLevel != index ) {
             // Swap in a different level of detail
-            getZoneRoot().detachAllChildren();
-        
-            DetailLevel level = detailLevels[detailLevel];
-            for( Geometry g : level.parts ) {
-                getZoneRoot().attachChild(g);
+            if( appliedDetailLevel >= 0 ) {
+                levels[appliedDetailLevel].node.removeFromParent();
+            }
+            getZoneRoot().attachChild(levels[index].node);
+            appliedDetailLevel = index;
+            
+            if( BufferReclaimer.getInstance().getOutstandingBytes() > evictionBytes ) {
+                evictLevels(builder);
             }
         }
     }
+ 
+    /**
+     *  Lets go of the batched levels that aren't showing.  The instanced 
+     *  levels only hold buffers that they share with the templates and with
+     *  each other so there is nothing to gain by evicting them.
+     */   
+    protected void evictLevels( Builder builder ) {
+        for( int i = 0; i < levels.length; i++ ) {
+            if( i == appliedDetailLevel || levels[i] == null ) {
+                continue;
+            }
+            if( !isBatchedLevel(i) ) {
+                continue;
+            }
+            if( log.isTraceEnabled() ) {
+                log.trace("Evicting level " + i + " of " + this);
+            }
+            builder.releaseLater(new LevelPacket(i, levels[i]));
+            levels[i] = null;
+        }
+    }
+    
+    protected boolean isBatchedLevel( int lod ) {
+        return treeTemplates.length > 0 && treeTemplates[0].lodTemplates[lod] == null;
+    }
 
-    boolean released = false;
+    volatile boolean released = false;
     @Override
     public void release( Builder builder ) {
         // Just a left-over test I'm too paranoid to remove
@@ -252,64 +345,50 @@ public class InstancedTreeZone extends AbstractZone {
         }
         released = true;
  
-        if( builtDetailLevels != detailLevels ) {
-            // We were caught building the new one
-            release(builtDetailLevels);
-        }            
-        builtDetailLevels = null;
+        // If we were caught building a new one then it gets 
+        // released, too.
+        builder.releaseLater(built);
+        built = null;
+        
+        for( int i = 0; i < levels.length; i++ ) {
+            if( levels[i] != null ) {
+                builder.releaseLater(new LevelPacket(i, levels[i]));
+                levels[i] = null;
+            }
+        }
+        appliedDetailLevel = -1;
         
-        release(detailLevels);
-        detailLevels = null;
+        // And the transforms that the instanced levels shared
+        builder.releaseLater(new TransformsPacket(treeTemplates));
  
         if( log.isTraceEnabled() ) {
             log.trace("release():" + this );
-            log.trace(this + " allocationCount:" + allocationCount);
-            log.trace(this + " destroyCount:" + destroyCount);
-            log.trace("total allocation:" + totalAllocationCount);        
-            log.trace("total destroy:" + totalDestroyCount);
         }
-        if( allocationCount.get() != destroyCount.get() ) {
-            log.warn(this + " destroy mismatch " + (allocationCount.get() - destroyCount.get()) );
-        }        
     }
     
-    private void release( DetailLevel[] levels ) {
-        if( levels == null ) {
+    
+    private void release( DetailLevel level ) {
+        if( level == null || !level.batched ) {
+            // Instanced levels don't own anything that isn't shared
             return;
         }
-        
-        destroyCount.incrementAndGet();       
-        totalDestroyCount.incrementAndGet();
-        if( activeBuffers.decrementAndGet() < 0 ) {
-            throw new RuntimeException("Mismatched buffer destroy, zone:" + this);
+        for( Geometry g : level.parts ) {
+            release(g);
         }
-        long start = System.nanoTime();
-        for( DetailLevel level : levels ) {
-            for( Geometry g : level.parts ) {
-                release(g);
-            }
-        }
-        long end = System.nanoTime();
     }
   
     protected void release( Geometry geom ) {
         if( geom == null ) {
             return;
         }
-        geom.removeFromParent();
+        // The level nodes are already out of the scene by the time
+        // we get here so we leave the hierarchy alone and just free
+        // the buffers.
         release(geom.getMesh());
     }
     
     protected void release( Mesh mesh ) {
-        if( mesh == null ) {
-            return;
-        }
-        for( VertexBuffer vb : mesh.getBufferList() ) {
-            if( log.isTraceEnabled() ) {
-                log.trace("--destroying buffer:" + vb);
-            }
-            BufferUtils.destroyDirectBuffer( vb.getData() );
-        }
+        BufferReclaimer.getInstance().reclaim(mesh);
     }
  
     /**
@@ -318,8 +397,73 @@ public class InstancedTreeZone extends AbstractZone {
      */
     private class DetailLevel {
         List<Geometry> parts = new ArrayList<Geometry>();
+        Node node = new Node("lod");
+        
+        // Batched parts own all of their buffers.  Instanced parts only
+        // have the zone's shared transforms and the template's buffers.
+        boolean batched;
+        
+        public DetailLevel( boolean batched ) {
+            this.batched = batched;
+        }
+    }
+ 
+    /**
+     *  A single detail level from a build() or one that is being
+     *  let go.
+     */
+    private class LevelPacket implements ApplyPacket {
+        int index;
+        DetailLevel level;
+        
+        public LevelPacket( int index, DetailLevel level ) {
+            this.index = index;
+            this.level = level;
+        }
+        
+        @Override
+        public void release() {
+            InstancedTreeZone.this.release(level);
+            if( log.isTraceEnabled() ) {
+                BufferReclaimer reclaimer = BufferReclaimer.getInstance();
+                log.trace("outstanding direct bytes:" + reclaimer.getOutstandingBytes()
+                            + "  pending:" + reclaimer.getPendingBytes());
+            }
+        }
+        
+        @Override
+        public String toString() {
+            return "LevelPacket[" + index + ", " + InstancedTreeZone.this + "]";
+        }
+    }
+    
+    /**
+     *  The per-tree-type instance transforms that the zone's instanced 
+     *  levels shared.
+     */
+    private class TransformsPacket implements ApplyPacket {
+        List<VertexBuffer> transforms = new ArrayList<VertexBuffer>();
+        
+        public TransformsPacket( TreeType[] types ) {
+            for( TreeType type : types ) {
+                if( type.instanceTransforms != null ) {
+                    transforms.add(type.instanceTransforms);
+                    type.instanceTransforms = null;
+                    type.instanceBounds = null;
+                }
+            }
+        }
         
-        public DetailLevel() {
+        @Override
+        public void release() {
+            for( VertexBuffer vb : transforms ) {
+                BufferReclaimer.getInstance().reclaim(vb.getData());
+            }
+        }
+        
+        @Override
+        public String toString() {
+            return "TransformsPacket[" + InstancedTreeZone.this + "]";
         }
     }
     
@@ -329,7 +473,9 @@ public class InstancedTreeZone extends AbstractZone {
         InstanceTemplate[][] lodTemplates = new InstanceTemplate[3][];
         BatchTemplate[][] lodBatchTemplates = new BatchTemplate[3][];
 
-        // These can be shared among the instanced levels
+        // Each zone has its own TreeTypes so these are this zone's 
+        // transforms for this type of tree.  They are created once and 
+        // shared by every instanced part and level.
         VertexBuffer instanceTransforms;
         BoundingBox instanceBounds;
         
@@ -361,20 +507,14 @@ public class InstancedTreeZone extends AbstractZone {
  
             for( int i = 0; i < templates.length; i++ ) {
                 InstanceTemplate template = templates[i];
-                Geometry geom;
                 if( instanceTransforms == null ) {
-                    // The first one we have to do completely
-                    geom = template.createInstances(instances);
- 
-                    if( geom != null ) {                   
-                        // Then we can reuse its transforms buffer
-                        instanceTransforms = geom.getMesh().getBuffer(Type.InstanceData);
-                        instanceBounds = (BoundingBox)geom.getMesh().getBound();
-                    }
-                } else {
-                    // Just reuse the previous stuff
-                    geom = template.createInstances(instanceTransforms, instanceBounds);
+                    // The first one creates the transforms and everything
+                    // else reuses them
+                    instanceBounds = new BoundingBox();
+                    instanceTransforms = template.createTransforms(instances, instanceBounds);
+                    BufferReclaimer.getInstance().track(instanceTransforms.getData());
                 }
+                Geometry geom = template.createInstances(instanceTransforms, instanceBounds);
  
                 if( geom != null ) {               
                     geom.setShadowMode(ShadowMode.CastAndReceive);
@@ -387,18 +527,18 @@ public class InstancedTreeZone extends AbstractZone {
         
         protected List<Geometry> getBatchedLevel( int lod, List<BatchInstance> instances ) {
             BatchTemplate[] templates = lodBatchTemplates[lod];
-            Geometry[] parts = new Geometry[templates.length];
+            List<Geometry> parts = new ArrayList<Geometry>();
             
-            for( int i = 0; i < templates.length; i++ ) {
-                BatchTemplate bt = templates[i];
-                Geometry geom = bt.createBatch(instances);
-                if( geom != null ) {
+            // A template may need more than one batch depending on
+            // its index size preference
+            for( BatchTemplate bt : templates ) {
+                for( Geometry geom : bt.createBatches(instances, plotExecutor) ) {
                     geom.setShadowMode(ShadowMode.CastAndReceive);
-                    parts[i] = geom;
+                    parts.add(geom);
                 }
             }
             
-            return Arrays.asList(parts);
+            return parts;
         }
         
         protected final void setLod( int lod, Node tree, boolean instanced ) {
@@ -431,8 +571,7 @@ public class InstancedTreeZone extends AbstractZone {
             } else {                                             
                 BatchTemplate[] templates = lodBatchTemplates[lod];
                 for( BatchTemplate bt : templates ) {
-                    Geometry geom = bt.createBatch(instances);
-                    if( geom != null ) {
+                    for( Geometry geom : bt.createBatches(instances, plotExecutor) ) {
                         results.add(geom);
                         geom.setShadowMode(ShadowMode.CastAndReceive);
                     }
@@ -449,9 +588,8 @@ public class InstancedTreeZone extends AbstractZone {
         }
     }
  
-    protected class FrequencyPlotter implements TriangleProcessor {
+    protected class FrequencyPlotter implements TriangleProcessor, TriangleChunks.MergeableVisitor<FrequencyPlotter> {
  
-        Random random;   
         TreeBin[] bins;
         
         float threshold = FastMath.sin(FastMath.QUARTER_PI);
@@ -459,17 +597,42 @@ public class InstancedTreeZone extends AbstractZone {
         Vector3f max;
         Vector3f world;
         int processedTriangleCount;
+        private Triangle tri = new Triangle();
         int binCount;
 
-        public FrequencyPlotter( int binCount, Random random ) {
+        public FrequencyPlotter( int binCount ) {
             this.binCount = binCount;
             this.bins = new TreeBin[binCount];
-            this.random = random;
             
             for( int i = 0; i < binCount; i++ ) {
                 bins[i] = new TreeBin();
             }
         }
+ 
+        /**
+         *  Returns a new plotter for the same area that collects its
+         *  own trees.
+         */       
+        @Override
+        public FrequencyPlotter createChunkVisitor() {
+            FrequencyPlotter result = new FrequencyPlotter(binCount);
+            result.min = min;
+            result.max = max;
+            result.world = world;
+            return result;
+        }
+ 
+        /**
+         *  Adds the trees from the specified chunk plotter after the
+         *  ones already plotted.
+         */       
+        @Override
+        public void merge( FrequencyPlotter chunk ) {
+            for( int i = 0; i < binCount; i++ ) {
+                bins[i].instances.addAll(chunk.bins[i].instances);
+            }
+            processedTriangleCount += chunk.processedTriangleCount;
+        }
 
         private boolean inZone( Vector3f v ) {
             if( v.x < min.x || v.y < min.y || v.z < min.z ) {
@@ -481,6 +644,36 @@ public class InstancedTreeZone extends AbstractZone {
             return true;
         }
 
+        private boolean inZone( MeshTriangles source, int v ) {
+            float x = source.getX(v);
+            float y = source.getY(v);
+            float z = source.getZ(v);
+            if( x < min.x || y < min.y || z < min.z ) {
+                return false;
+            }
+            if( x > max.x || y > max.y || z > max.z ) {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void visitTriangle( MeshTriangles source, int index, int v0, int v1, int v2 ) {
+            // Do the cheap rejections right from the buffers so that
+            // we only fill in a Triangle for the ones we rasterize
+            if( !source.hasNormals() ) {
+                return;
+            }
+            if( source.getNormalY(v0) < threshold && source.getNormalY(v1) < threshold 
+                && source.getNormalY(v2) < threshold ) {
+                return;
+            }
+            if( !inZone(source, v0) || !inZone(source, v1) || !inZone(source, v2) ) {
+                return;
+            }
+            processTriangle(source.getMesh(), index, source.getTriangle(v0, v1, v2, tri));
+        }
+
         @Override
         public void processTriangle( Mesh mesh, int index, Triangle tri ) {
             if( tri.norms[0].y < threshold && tri.norms[1].y < threshold && tri.norms[2].y < threshold ) {
@@ -675,7 +868,8 @@ public class InstancedTreeZone extends AbstractZone {
                                     // Create the random but directed rotation
                                     Vector3f n = newNorm.addLocal(0, 1, 0).normalizeLocal();                                                
                                     Quaternion rot = new Quaternion();
-                                    rot.fromAngles(0, FastMath.TWO_PI * random.nextFloat(), 0);
+                                    float turn = PlotHash.nextFloat(seed, world.x + plot.x, world.z + plot.z, bin);
+                                    rot.fromAngles(0, FastMath.TWO_PI * turn, 0);
                                      
                                     // Make the quaternion's "up" be the normal provided
                                     float angle = Vector3f.UNIT_Y.angleBetween(n);
@@ -715,6 +909,9 @@ public class InstancedTreeZone extends AbstractZone {
         private Material material;
         private BilinearArray noise;
         private Node[] treeTemplates;
+        private long seed;
+        private ExecutorService plotExecutor;
+        private long evictionBytes = DEFAULT_EVICTION_BYTES;
         
         public Factory( Material material, BilinearArray noise, Node... treeTemplates ) {
             this.noise = noise;
@@ -722,9 +919,48 @@ public class InstancedTreeZone extends AbstractZone {
             this.treeTemplates = treeTemplates;
         }
         
+        /**
+         *  Sets the world seed for the zones' tree rotations.
+         */
+        public void setSeed( long seed ) {
+            this.seed = seed;
+        }
+        
+        public long getSeed() {
+            return seed;
+        }
+ 
+        /**
+         *  Sets the executor that the zones use to plot in parallel.
+         *  See setPlotExecutor() on the zone.
+         */       
+        public void setPlotExecutor( ExecutorService plotExecutor ) {
+            this.plotExecutor = plotExecutor;
+        }
+        
+        public ExecutorService getPlotExecutor() {
+            return plotExecutor;
+        }
+ 
+        /**
+         *  Sets the outstanding direct memory above which zones let go
+         *  of detail levels they aren't showing.  See setEvictionBytes()
+         *  on the zone.
+         */       
+        public void setEvictionBytes( long evictionBytes ) {
+            this.evictionBytes = evictionBytes;
+        }
+        
+        public long getEvictionBytes() {
+            return evictionBytes;
+        }
+        
         @Override
         public Zone createZone( PagedGrid pg, int xCell, int yCell, int zCell ) {
-            Zone result = new InstancedTreeZone(pg.getGrid(), material, noise, xCell, yCell, zCell, treeTemplates);
+            InstancedTreeZone result = new InstancedTreeZone(pg.getGrid(), material, noise, xCell, yCell, zCell, treeTemplates);
+            result.setSeed(seed);
+            result.setPlotExecutor(plotExecutor);
+            result.setEvictionBytes(evictionBytes);
             return result;   
         }        
     }
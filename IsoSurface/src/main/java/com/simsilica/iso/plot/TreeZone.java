@@ -44,13 +44,17 @@ import com.jme3.renderer.queue.RenderQueue.ShadowMode;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
-import com.jme3.scene.VertexBuffer;
-import com.jme3.util.BufferUtils;
 import com.simsilica.builder.Builder;
+import com.simsilica.builder.BufferReclaimer;
+import com.simsilica.iso.IsoTerrainZone;
+import com.simsilica.iso.tri.MeshTriangles;
+import com.simsilica.iso.tri.TriangleBins;
+import com.simsilica.iso.tri.TriangleChunks;
 import com.simsilica.iso.tri.TriangleUtils;
 import com.simsilica.iso.tri.Triangle;
 import com.simsilica.iso.tri.TriangleProcessor;
 import com.simsilica.iso.util.BilinearArray;
+import com.simsilica.iso.util.PlotHash;
 import com.simsilica.pager.AbstractZone;
 import com.simsilica.pager.Grid;
 import com.simsilica.pager.PagedGrid;
@@ -58,8 +62,7 @@ import com.simsilica.pager.Zone;
 import com.simsilica.pager.ZoneFactory;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -88,13 +91,9 @@ public class TreeZone extends AbstractZone {
     private static int maxTreeCount = 0;
     
     private TreeBin[] zoneInstances;
-
-    // Just some book-keeping left over from memory leak checks.    
-    private static AtomicInteger totalAllocationCount = new AtomicInteger();
-    private static AtomicInteger totalDestroyCount = new AtomicInteger();
-    private AtomicInteger allocationCount = new AtomicInteger();
-    private AtomicInteger destroyCount = new AtomicInteger();
-    private AtomicInteger activeBuffers = new AtomicInteger();
+    
+    private long seed;
+    private ExecutorService plotExecutor;
 
 
     public TreeZone( Grid grid, Material material, BilinearArray noise, int xCell, int yCell, int zCell,
@@ -108,6 +107,34 @@ public class TreeZone extends AbstractZone {
         }
     }
  
+    /**
+     *  Sets the world seed that the tree rotations are derived from.  
+     *  Each tree's rotation is a hash of the seed, its world location, and
+     *  its tree type so it doesn't matter which zone or thread plots it.
+     */
+    public void setSeed( long seed ) {
+        this.seed = seed;
+    }
+    
+    public long getSeed() {
+        return seed;
+    }
+ 
+    /**
+     *  Sets an executor that is used to plot large sets of triangles 
+     *  in parallel chunks.  The trees are merged back in triangle order 
+     *  so the results are the same as plotting them all on the build 
+     *  thread.  Large tree batches are also written in parallel on this 
+     *  executor.  Defaults to null for no parallel plotting.
+     */   
+    public void setPlotExecutor( ExecutorService plotExecutor ) {
+        this.plotExecutor = plotExecutor;
+    }
+    
+    public ExecutorService getPlotExecutor() {
+        return plotExecutor;
+    }
+ 
     protected boolean setDetailLevel( int i ) {
         if( this.detailLevel == i ) {
             return false;
@@ -136,25 +163,40 @@ public class TreeZone extends AbstractZone {
         Vector3f size = grid.getCellSize();
         
         if( zoneInstances == null ) {
-            long seed = (long)getXCell() << 32 | getYCell();
-            Random random = new Random(seed);
-         
-            FrequencyPlotter plotter = new FrequencyPlotter(treeTemplates.length, random);
-            if( getParentZone() != null ) {       
+            FrequencyPlotter plotter = new FrequencyPlotter(treeTemplates.length);
+            for( Zone parent : getParentZones() ) {       
                 // Find the parent relative corner.  This zone could be one of
                 // several splitting up a larger zone.  To interact with the plotter
                 // we need to know what area of the parent we should be scanning.
+                // If the grids don't line up then it may also overlap more than
+                // one parent so we scan each of them.
                 Vector3f worldLoc = grid.toWorld(getXCell(), getYCell(), getZCell(), null);
-                Vector3f parentLoc = getParentZone().getWorldLocation(null);
+                Vector3f parentLoc = parent.getWorldLocation(null);
                 plotter.world = worldLoc;
                 plotter.min = worldLoc.subtract(parentLoc);
                 log.trace("Cell min:" + plotter.min);
                             
                 plotter.max = plotter.min.add(grid.getCellSize());
                 
+                // Plot right on the parent's published triangles when it
+                // has them.  The bins let us skip most of the triangles that
+                // aren't in our cell.
+                TriangleBins parentBins = parent.getZoneData(IsoTerrainZone.TRIANGLE_BINS);
+                Mesh parentMesh = parent.getZoneData(IsoTerrainZone.LAND_MESH);
+
                 // Scan the triangles for valid grass plots using the plotter.
                 long start = System.nanoTime();
-                int count = TriangleUtils.processTriangles(getParentZone().getZoneRoot(), plotter);
+                int count;
+                if( parentBins != null ) {
+                    count = TriangleChunks.visit(parentBins.getMeshTriangles(),
+                                                 parentBins.getTriangles(plotter.min.x, plotter.min.z, 
+                                                                         plotter.max.x, plotter.max.z),
+                                                 plotExecutor, plotter);
+                } else if( parentMesh != null ) {
+                    count = TriangleChunks.visit(new MeshTriangles(parentMesh), null, plotExecutor, plotter);
+                } else { 
+                    count = TriangleUtils.visitTriangles(parent.getZoneRoot(), plotter);
+                }
                 long end = System.nanoTime();
                 if( count > 0 && log.isInfoEnabled() ) {
                     log.info("Plotted points for " + plotter.processedTriangleCount + " / " + count 
@@ -195,9 +237,11 @@ public class TreeZone extends AbstractZone {
         
         builtGeomArray = new Geometry[results.size()];
         builtGeomArray = results.toArray(builtGeomArray);
-        allocationCount.incrementAndGet();
-        totalAllocationCount.incrementAndGet();
-        activeBuffers.incrementAndGet();
+        
+        // Let the reclaimer keep track of the direct memory we're using
+        for( Geometry g : builtGeomArray ) {
+            BufferReclaimer.getInstance().track(g.getMesh());
+        }
         
         // For statistics, let's keep track of the most number of trees
         // that we generate
@@ -210,6 +254,7 @@ public class TreeZone extends AbstractZone {
         }   
     }
 
+
     @Override
     public void apply( Builder builder ) {
         release(geomArray);
@@ -239,15 +284,11 @@ public class TreeZone extends AbstractZone {
         builtGeomArray = null;
  
         if( log.isTraceEnabled() ) {
+            BufferReclaimer reclaimer = BufferReclaimer.getInstance();
             log.trace("release():" + this );
-            log.trace(this + " allocationCount:" + allocationCount);
-            log.trace(this + " destroyCount:" + destroyCount);
-            log.trace("total allocation:" + totalAllocationCount);        
-            log.trace("total destroy:" + totalDestroyCount);
+            log.trace("outstanding direct bytes:" + reclaimer.getOutstandingBytes()
+                        + "  pending:" + reclaimer.getPendingBytes());
         }
-        if( allocationCount.get() != destroyCount.get() ) {
-            log.warn(this + " destroy mismatch " + (allocationCount.get() - destroyCount.get()) );
-        }        
     }
  
     protected void release( Geometry[] array ) {
@@ -255,11 +296,6 @@ public class TreeZone extends AbstractZone {
             return;
         }
  
-        destroyCount.incrementAndGet();       
-        totalDestroyCount.incrementAndGet();
-        if( activeBuffers.decrementAndGet() < 0 ) {
-            throw new RuntimeException("Mismatched buffer destroy, zone:" + this);
-        }
         long start = System.nanoTime();
         for( Geometry g : array ) {
             release(g);
@@ -277,15 +313,7 @@ public class TreeZone extends AbstractZone {
     }
     
     protected void release( Mesh mesh ) {
-        if( mesh == null ) {
-            return;
-        }
-        for( VertexBuffer vb : mesh.getBufferList() ) {
-            if( log.isTraceEnabled() ) {
-                log.trace("--destroying buffer:" + vb);
-            }
-            BufferUtils.destroyDirectBuffer( vb.getData() );
-        }
+        BufferReclaimer.getInstance().reclaim(mesh);
     }
     
     private class TreeType {
@@ -313,8 +341,7 @@ public class TreeZone extends AbstractZone {
                               
             BatchTemplate[] templates = lodTemplates[lod];
             for( BatchTemplate bt : templates ) {
-                Geometry geom = bt.createBatch(instances);
-                if( geom != null ) {
+                for( Geometry geom : bt.createBatches(instances, plotExecutor) ) {
                     results.add(geom);
                     geom.setShadowMode(ShadowMode.CastAndReceive);
                 }
@@ -330,9 +357,8 @@ public class TreeZone extends AbstractZone {
         }
     }
  
-    protected class FrequencyPlotter implements TriangleProcessor {
+    protected class FrequencyPlotter implements TriangleProcessor, TriangleChunks.MergeableVisitor<FrequencyPlotter> {
  
-        Random random;   
         TreeBin[] bins;
         
         float threshold = FastMath.sin(FastMath.QUARTER_PI);
@@ -340,17 +366,42 @@ public class TreeZone extends AbstractZone {
         Vector3f max;
         Vector3f world;
         int processedTriangleCount;
+        private Triangle tri = new Triangle();
         int binCount;
 
-        public FrequencyPlotter( int binCount, Random random ) {
+        public FrequencyPlotter( int binCount ) {
             this.binCount = binCount;
             this.bins = new TreeBin[binCount];
-            this.random = random;
             
             for( int i = 0; i < binCount; i++ ) {
                 bins[i] = new TreeBin();
             }
         }
+ 
+        /**
+         *  Returns a new plotter for the same area that collects its
+         *  own trees.
+         */       
+        @Override
+        public FrequencyPlotter createChunkVisitor() {
+            FrequencyPlotter result = new FrequencyPlotter(binCount);
+            result.min = min;
+            result.max = max;
+            result.world = world;
+            return result;
+        }
+ 
+        /**
+         *  Adds the trees from the specified chunk plotter after the
+         *  ones already plotted.
+         */       
+        @Override
+        public void merge( FrequencyPlotter chunk ) {
+            for( int i = 0; i < binCount; i++ ) {
+                bins[i].instances.addAll(chunk.bins[i].instances);
+            }
+            processedTriangleCount += chunk.processedTriangleCount;
+        }
 
         private boolean inZone( Vector3f v ) {
             if( v.x < min.x || v.y < min.y || v.z < min.z ) {
@@ -362,6 +413,37 @@ public class TreeZone extends AbstractZone {
             return true;
         }
 
+        private boolean inZone( MeshTriangles source, int v ) {
+            float x = source.getX(v);
+            float y = source.getY(v);
+            float z = source.getZ(v);
+            if( x < min.x || y < min.y || z < min.z ) {
+                return false;
+            }
+            if( x > max.x || y > max.y || z > max.z ) {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void visitTriangle( MeshTriangles source, int index, int v0, int v1, int v2 ) {
+            // Do the cheap rejections right from the buffers so that
+            // we only fill in a Triangle for the ones we rasterize
+            if( !source.hasNormals() ) {
+                return;
+            }
+            if( source.getNormalY(v0) < threshold && source.getNormalY(v1) < threshold 
+                && source.getNormalY(v2) < threshold ) {
+                return;
+            }
+            if( !inZone(source, v0) || !inZone(source, v1) || !inZone(source, v2) ) {
+                return;
+            }
+            processTriangle(source.getMesh(), index, source.getTriangle(v0, v1, v2, tri));
+        }
+
+        @Override
         public void processTriangle( Mesh mesh, int index, Triangle tri ) {
             if( tri.norms[0].y < threshold && tri.norms[1].y < threshold && tri.norms[2].y < threshold ) {
                 return;
@@ -555,7 +637,8 @@ public class TreeZone extends AbstractZone {
                                     // Create the random but directed rotation
                                     Vector3f n = newNorm.addLocal(0, 1, 0).normalizeLocal();                                                
                                     Quaternion rot = new Quaternion();
-                                    rot.fromAngles(0, FastMath.TWO_PI * random.nextFloat(), 0);
+                                    float turn = PlotHash.nextFloat(seed, world.x + plot.x, world.z + plot.z, bin);
+                                    rot.fromAngles(0, FastMath.TWO_PI * turn, 0);
                                      
                                     // Make the quaternion's "up" be the normal provided
                                     float angle = Vector3f.UNIT_Y.angleBetween(n);
@@ -595,6 +678,8 @@ public class TreeZone extends AbstractZone {
         private Material material;
         private BilinearArray noise;
         private Node[] treeTemplates;
+        private long seed;
+        private ExecutorService plotExecutor;
         
         public Factory( Material material, BilinearArray noise, Node... treeTemplates ) {
             this.noise = noise;
@@ -602,8 +687,33 @@ public class TreeZone extends AbstractZone {
             this.treeTemplates = treeTemplates;
         }
         
+        /**
+         *  Sets the world seed for the zones' tree rotations.
+         */
+        public void setSeed( long seed ) {
+            this.seed = seed;
+        }
+        
+        public long getSeed() {
+            return seed;
+        }
+ 
+        /**
+         *  Sets the executor that the zones use to plot in parallel.
+         *  See setPlotExecutor() on the zone.
+         */       
+        public void setPlotExecutor( ExecutorService plotExecutor ) {
+            this.plotExecutor = plotExecutor;
+        }
+        
+        public ExecutorService getPlotExecutor() {
+            return plotExecutor;
+        }
+        
         public Zone createZone( PagedGrid pg, int xCell, int yCell, int zCell ) {
-            Zone result = new TreeZone(pg.getGrid(), material, noise, xCell, yCell, zCell, treeTemplates);
+            TreeZone result = new TreeZone(pg.getGrid(), material, noise, xCell, yCell, zCell, treeTemplates);
+            result.setSeed(seed);
+            result.setPlotExecutor(plotExecutor);
             return result;   
         }        
     }
@@ -0,0 +1,276 @@
+/*
+ * $Id$
+ * 
+ * Copyright (c) 2014, Simsilica, LLC
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright 
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its 
+ *    contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) 
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED 
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simsilica.iso.tri;
+
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.scene.mesh.IndexBuffer;
+import java.nio.FloatBuffer;
+
+
+/**
+ *  A flyweight view of a mesh's triangles that reads its positions,
+ *  normals, and texture coordinates directly out of the mesh buffers.
+ *  Indexed and non-indexed triangle lists, strips, and fans are all
+ *  supported.
+ *
+ *  <p>Only absolute buffer reads are used so a single MeshTriangles can be
+ *  shared by any number of threads, each visiting its own range of triangles,
+ *  as long as nothing modifies the mesh buffers in the mean time.</p> 
+ *
+ *  @author    Paul Speed
+ */
+public class MeshTriangles {
+
+    private final Mesh mesh;
+    private final Mesh.Mode mode;
+    private final IndexBuffer indexes;
+    private final int triangleCount;
+    private final FloatBuffer pos;
+    private final int posSize;
+    private final FloatBuffer norms;
+    private final int normSize;
+    private final FloatBuffer texes;
+    private final int texSize;
+    
+    public MeshTriangles( Mesh mesh ) {
+        this.mesh = mesh;
+        this.mode = mesh.getMode();
+        this.indexes = mesh.getIndexBuffer();
+        
+        int count = indexes != null ? indexes.size() : mesh.getVertexCount();
+        switch( mode ) {
+            case Triangles:
+                triangleCount = count / 3;
+                break;
+            case TriangleStrip:
+            case TriangleFan:
+                triangleCount = Math.max(0, count - 2);
+                break;
+            case Hybrid:
+                throw new UnsupportedOperationException("Mesh type not yet supported:" + mode);
+            default:
+                // No triangles in lines or points
+                triangleCount = 0;
+                break;
+        }
+ 
+        VertexBuffer vb = mesh.getBuffer(Type.Position);
+        this.pos = vb == null ? null : (FloatBuffer)vb.getData();
+        this.posSize = vb == null ? 0 : vb.getNumComponents();
+        vb = mesh.getBuffer(Type.Normal);
+        this.norms = vb == null ? null : (FloatBuffer)vb.getData();
+        this.normSize = vb == null ? 0 : vb.getNumComponents();
+        vb = mesh.getBuffer(Type.TexCoord);
+        this.texes = vb == null ? null : (FloatBuffer)vb.getData();
+        this.texSize = vb == null ? 0 : vb.getNumComponents();
+    }
+    
+    public Mesh getMesh() {
+        return mesh;
+    }
+    
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+    
+    public boolean hasNormals() {
+        return norms != null;
+    }
+    
+    public boolean hasTexCoords() {
+        return texes != null;
+    }
+ 
+    /**
+     *  Returns the vertex index of the specified corner, 0 to 2, of the
+     *  specified triangle.  Strip triangles are returned with consistent 
+     *  winding.
+     */   
+    public int getVertex( int triangle, int corner ) {
+        int i;
+        switch( mode ) {
+            case TriangleStrip:
+                // Every other triangle in a strip has its first
+                // two corners swapped to keep the winding
+                if( (triangle & 1) == 1 && corner < 2 ) {
+                    corner = 1 - corner;
+                }
+                i = triangle + corner;
+                break;
+            case TriangleFan:
+                i = corner == 0 ? 0 : triangle + corner;
+                break;
+            default:
+                i = triangle * 3 + corner;
+                break;
+        }
+        return indexes == null ? i : indexes.get(i);
+    }
+ 
+    public float getX( int vertex ) {
+        return pos.get(vertex * posSize);
+    }
+    
+    public float getY( int vertex ) {
+        return pos.get(vertex * posSize + 1);
+    }
+    
+    public float getZ( int vertex ) {
+        return pos.get(vertex * posSize + 2);
+    }
+ 
+    public float getNormalX( int vertex ) {
+        return norms.get(vertex * normSize);
+    }
+    
+    public float getNormalY( int vertex ) {
+        return norms.get(vertex * normSize + 1);
+    }
+    
+    public float getNormalZ( int vertex ) {
+        return norms.get(vertex * normSize + 2);
+    }
+    
+    public float getTexU( int vertex ) {
+        return texes.get(vertex * texSize);
+    }
+    
+    public float getTexV( int vertex ) {
+        return texes.get(vertex * texSize + 1);
+    }
+    
+    public Vector3f getPosition( int vertex, Vector3f target ) {
+        if( target == null ) {
+            target = new Vector3f();
+        }
+        int base = vertex * posSize;
+        return target.set(pos.get(base), pos.get(base + 1), pos.get(base + 2));
+    }
+    
+    public Vector3f getNormal( int vertex, Vector3f target ) {
+        if( target == null ) {
+            target = new Vector3f();
+        }
+        int base = vertex * normSize;
+        return target.set(norms.get(base), norms.get(base + 1), norms.get(base + 2));
+    }
+ 
+    public Vector2f getTexCoord( int vertex, Vector2f target ) {
+        if( target == null ) {
+            target = new Vector2f();
+        }
+        int base = vertex * texSize;
+        return target.set(texes.get(base), texes.get(base + 1));
+    }
+ 
+    /**
+     *  Fills in the specified Triangle with the specified triangle's vertex
+     *  data.  Normals and texture coordinates are left alone if the mesh
+     *  doesn't have them.
+     */   
+    public Triangle getTriangle( int triangle, Triangle target ) {
+        return getTriangle(getVertex(triangle, 0), getVertex(triangle, 1), getVertex(triangle, 2), target);
+    }
+ 
+    /**
+     *  Fills in the specified Triangle with the vertex data of the specified
+     *  three vertexes. 
+     */   
+    public Triangle getTriangle( int v0, int v1, int v2, Triangle target ) {
+        if( target == null ) {
+            target = new Triangle();
+        }
+        target.indexes[0] = v0;
+        target.indexes[1] = v1;
+        target.indexes[2] = v2;
+        for( int v = 0; v < 3; v++ ) {
+            int index = target.indexes[v];
+            getPosition(index, target.verts[v]);
+            if( norms != null ) {
+                getNormal(index, target.norms[v]);
+            }
+            if( texes != null ) {
+                getTexCoord(index, target.texes[v]);
+            }
+        }
+        return target;
+    }
+ 
+    /**
+     *  Visits all of the triangles in order and returns the number visited.
+     */   
+    public int visit( TriangleVisitor visitor ) {
+        return visit(0, triangleCount, visitor);
+    }
+    
+    /**
+     *  Visits the triangles from start, inclusive, to end, exclusive, and
+     *  returns the number visited.  Different ranges can be visited from
+     *  different threads at the same time.
+     */
+    public int visit( int start, int end, TriangleVisitor visitor ) {
+        end = Math.min(end, triangleCount);
+        if( mode == Mesh.Mode.Triangles ) {
+            // The common case with no corner shuffling
+            if( indexes == null ) {
+                for( int t = start; t < end; t++ ) {
+                    int i = t * 3;
+                    visitor.visitTriangle(this, t, i, i + 1, i + 2);
+                }
+            } else {
+                for( int t = start; t < end; t++ ) {
+                    int i = t * 3;
+                    visitor.visitTriangle(this, t, indexes.get(i), indexes.get(i + 1), indexes.get(i + 2));
+                }
+            }
+        } else {
+            for( int t = start; t < end; t++ ) {
+                visitor.visitTriangle(this, t, getVertex(t, 0), getVertex(t, 1), getVertex(t, 2));
+            }
+        }
+        return Math.max(0, end - start);
+    }
+    
+    @Override
+    public String toString() {
+        return "MeshTriangles[" + mesh + ", mode=" + mode + ", triangles=" + triangleCount + "]";
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * $Id$
+ * 
+ * Copyright (c) 2014, Simsilica, LLC
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright 
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its 
+ *    contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) 
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED 
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simsilica.iso.tri;
+
+import com.jme3.scene.Mesh;
+import java.util.Arrays;
+
+
+/**
+ *  A uniform 2D grid over the x/z extents of a triangle
+ *  mesh where each bin lists the triangles whose x/z bounds overlap
+ *  it.  This lets code that only cares about a sub-region of the mesh,
+ *  like child zones plotting grass on part of a terrain zone, skip
+ *  the triangles that can't possibly be in their region.
+ *
+ *  <p>The bins are built once and are read-only afterwards so any number
+ *  of threads can call processTriangles() at the same time as long as the
+ *  mesh buffers aren't modified.  Triangles are always delivered in
+ *  ascending index order, the same as TriangleUtils would deliver them,
+ *  so processors that depend on visit order produce the same results.</p>
+ *
+ *  @author    Paul Speed
+ */
+public class TriangleBins {
+
+    private final Mesh mesh;
+    private final MeshTriangles tris;
+    private final int triangleCount;
+    private final float xMin;
+    private final float zMin;
+    private final float binSize;
+    private final int xBins;
+    private final int zBins;
+    
+    // Compressed bin lists: the triangles for bin i are
+    // binTriangles[binStarts[i]] to binTriangles[binStarts[i + 1] - 1]
+    private final int[] binStarts;
+    private final int[] binTriangles;
+ 
+    /**
+     *  Creates bins of the specified x/z size over the specified
+     *  triangle mesh.
+     */   
+    public TriangleBins( Mesh mesh, float binSize ) {
+        this.mesh = mesh;
+        this.tris = new MeshTriangles(mesh);
+        this.binSize = binSize;
+        this.triangleCount = tris.getTriangleCount();
+        
+        // Find the x/z extents
+        float x1 = Float.POSITIVE_INFINITY;
+        float z1 = Float.POSITIVE_INFINITY;
+        float x2 = Float.NEGATIVE_INFINITY;
+        float z2 = Float.NEGATIVE_INFINITY;
+        int vertCount = mesh.getVertexCount();
+        for( int i = 0; i < vertCount; i++ ) {
+            float x = tris.getX(i);
+            float z = tris.getZ(i);
+            x1 = Math.min(x1, x);
+            z1 = Math.min(z1, z);
+            x2 = Math.max(x2, x);
+            z2 = Math.max(z2, z);
+        }
+        if( vertCount == 0 ) {
+            x1 = z1 = x2 = z2 = 0;
+        }
+        this.xMin = x1;
+        this.zMin = z1;
+        this.xBins = Math.max(1, (int)Math.ceil((x2 - x1) / binSize));
+        this.zBins = Math.max(1, (int)Math.ceil((z2 - z1) / binSize));
+        
+        // Two passes, one to count and one to fill, so that the whole
+        // thing is just two int arrays.
+        int[] triBins = new int[triangleCount * 4];
+        int[] counts = new int[xBins * zBins + 1];
+        for( int t = 0; t < triangleCount; t++ ) {
+            float tx1 = Float.POSITIVE_INFINITY;
+            float tz1 = Float.POSITIVE_INFINITY;
+            float tx2 = Float.NEGATIVE_INFINITY;
+            float tz2 = Float.NEGATIVE_INFINITY;
+            for( int v = 0; v < 3; v++ ) {
+                int index = tris.getVertex(t, v);
+                float x = tris.getX(index);
+                float z = tris.getZ(index);
+                tx1 = Math.min(tx1, x);
+                tz1 = Math.min(tz1, z);
+                tx2 = Math.max(tx2, x);
+                tz2 = Math.max(tz2, z);
+            }
+            int bx1 = toBinX(tx1);
+            int bz1 = toBinZ(tz1);
+            int bx2 = toBinX(tx2);
+            int bz2 = toBinZ(tz2);
+            triBins[t * 4] = bx1;
+            triBins[t * 4 + 1] = bz1;
+            triBins[t * 4 + 2] = bx2;
+            triBins[t * 4 + 3] = bz2;
+            for( int bx = bx1; bx <= bx2; bx++ ) {
+                for( int bz = bz1; bz <= bz2; bz++ ) {
+                    counts[bz * xBins + bx + 1]++;
+                }
+            }
+        }
+        
+        // Turn the counts into start offsets
+        for( int i = 1; i < counts.length; i++ ) {
+            counts[i] += counts[i - 1];
+        }
+        this.binStarts = counts;
+        this.binTriangles = new int[counts[counts.length - 1]];
+        
+        int[] next = Arrays.copyOf(counts, counts.length - 1);
+        for( int t = 0; t < triangleCount; t++ ) {
+            for( int bx = triBins[t * 4]; bx <= triBins[t * 4 + 2]; bx++ ) {
+                for( int bz = triBins[t * 4 + 1]; bz <= triBins[t * 4 + 3]; bz++ ) {
+                    binTriangles[next[bz * xBins + bx]++] = t;
+                }
+            }
+        }
+    }
+ 
+    public Mesh getMesh() {
+        return mesh;
+    }
+    
+    /**
+     *  Returns the read-only view of the mesh's triangles that the 
+     *  triangle indexes refer to.
+     */
+    public MeshTriangles getMeshTriangles() {
+        return tris;
+    }
+    
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+ 
+    public float getBinSize() {
+        return binSize;
+    }
+ 
+    public int getXBins() {
+        return xBins;
+    }
+    
+    public int getZBins() {
+        return zBins;
+    }
+ 
+    protected int toBinX( float x ) {
+        int result = (int)((x - xMin) / binSize);
+        return Math.max(0, Math.min(xBins - 1, result));
+    }
+    
+    protected int toBinZ( float z ) {
+        int result = (int)((z - zMin) / binSize);
+        return Math.max(0, Math.min(zBins - 1, result));
+    }
+ 
+    /**
+     *  Returns the indexes of the triangles that might overlap the specified 
+     *  x/z region in ascending order.  The triangles' x/z bounds overlap 
+     *  the bins that overlap the region but the triangles themselves may 
+     *  still be outside of it.
+     */
+    public int[] getTriangles( float x1, float z1, float x2, float z2 ) {
+        if( x2 < x1 || z2 < z1 ) {
+            return new int[0];
+        }
+        int bx1 = toBinX(x1);
+        int bz1 = toBinZ(z1);
+        int bx2 = toBinX(x2);
+        int bz2 = toBinZ(z2);
+        
+        int total = 0;
+        for( int bz = bz1; bz <= bz2; bz++ ) {
+            total += binStarts[bz * xBins + bx2 + 1] - binStarts[bz * xBins + bx1];
+        }
+        int[] result = new int[total];
+        int count = 0;
+        for( int bz = bz1; bz <= bz2; bz++ ) {
+            int start = binStarts[bz * xBins + bx1];
+            int end = binStarts[bz * xBins + bx2 + 1];
+            System.arraycopy(binTriangles, start, result, count, end - start);
+            count += end - start;
+        }
+        
+        // Triangles that span bins show up more than once
+        Arrays.sort(result);
+        int unique = 0;
+        for( int i = 0; i < count; i++ ) {
+            if( unique == 0 || result[unique - 1] != result[i] ) {
+                result[unique++] = result[i];
+            }
+        }
+        return unique == count ? result : Arrays.copyOf(result, unique); 
+    }
+ 
+    /**
+     *  Passes the triangles that might overlap the specified x/z region to 
+     *  the processor and returns the number of triangles passed.
+     */   
+    public int processTriangles( float x1, float z1, float x2, float z2, TriangleProcessor proc ) {
+        int[] triangles = getTriangles(x1, z1, x2, z2);
+        if( triangles.length == 0 ) {
+            return 0;
+        }
+        
+        Triangle tri = new Triangle();
+        for( int t : triangles ) {
+            tris.getTriangle(t, tri);
+            proc.processTriangle(mesh, t, tri);
+        }
+        return triangles.length;
+    }
+    
+    /**
+     *  Passes the triangles that might overlap the specified x/z region to 
+     *  the visitor without copying their vertex data and returns the number 
+     *  of triangles passed.
+     */   
+    public int visitTriangles( float x1, float z1, float x2, float z2, TriangleVisitor visitor ) {
+        int[] triangles = getTriangles(x1, z1, x2, z2);
+        for( int t : triangles ) {
+            visitor.visitTriangle(tris, t, tris.getVertex(t, 0), tris.getVertex(t, 1), tris.getVertex(t, 2));
+        }
+        return triangles.length;
+    }
+ 
+    @Override
+    public String toString() {
+        return "TriangleBins[triangles=" + triangleCount + ", bins=" + xBins + "x" + zBins 
+                    + ", entries=" + binTriangles.length + "]";
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * $Id$
+ * 
+ * Copyright (c) 2014, Simsilica, LLC
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright 
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its 
+ *    contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) 
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED 
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simsilica.iso.tri;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ *  Splits a set of triangles into contiguous chunks that are each
+ *  walked by their own visitor, optionally in parallel.  The visitors
+ *  are returned in triangle order so that merging their results in list
+ *  order gives the same result as one visitor that saw every triangle.
+ *
+ *  @author    Paul Speed
+ */
+public class TriangleChunks {
+
+    /**
+     *  The number of triangles given to each parallel task by
+     *  visit(tris, triangles, executor, visitor).  Sets no bigger
+     *  than this are visited on the calling thread.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    /**
+     *  Creates a new visitor for each chunk.
+     */
+    public interface VisitorFactory<T extends TriangleVisitor> {
+        public T createVisitor();
+    }
+ 
+    /**
+     *  A visitor that can create a fresh visitor for a chunk of
+     *  triangles and then fold that chunk's results back into itself.
+     */
+    public interface MergeableVisitor<T extends TriangleVisitor> extends TriangleVisitor {
+        public T createChunkVisitor();
+        
+        /**
+         *  Adds the results of the specified chunk visitor after the
+         *  ones already collected.
+         */
+        public void merge( T chunk );
+    }
+ 
+    /**
+     *  Visits the specified triangles, or all of the triangles if 'triangles'
+     *  is null, with a single visitor on the calling thread and returns the
+     *  number visited.
+     */   
+    public static int visit( MeshTriangles tris, int[] triangles, TriangleVisitor visitor ) {
+        if( triangles == null ) {
+            return tris.visit(visitor);
+        }
+        return visit(tris, triangles, 0, triangles.length, visitor);
+    }
+    
+    protected static int visit( MeshTriangles tris, int[] triangles, int start, int end, TriangleVisitor visitor ) {
+        for( int i = start; i < end; i++ ) {
+            int t = triangles[i];
+            visitor.visitTriangle(tris, t, tris.getVertex(t, 0), tris.getVertex(t, 1), tris.getVertex(t, 2));
+        }
+        return end - start;
+    }
+ 
+    /**
+     *  Visits the specified triangles, or all of the triangles if 'triangles'
+     *  is null, in chunks of up to chunkSize triangles using a new visitor
+     *  from the factory for each chunk.  The chunks are run on the executor
+     *  and this method waits for all of them to finish.  The executor must
+     *  not be one whose threads might be waiting on this call.  Returns the 
+     *  visitors in triangle order.
+     */   
+    public static <T extends TriangleVisitor> List<T> visit( final MeshTriangles tris, final int[] triangles, 
+                                                             int chunkSize, ExecutorService executor,
+                                                             VisitorFactory<T> factory ) {
+        int count = triangles == null ? tris.getTriangleCount() : triangles.length;
+        List<T> visitors = new ArrayList<T>();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for( int i = 0; i < count; i += chunkSize ) {
+            final int start = i;
+            final int end = Math.min(count, i + chunkSize);
+            final T visitor = factory.createVisitor();
+            visitors.add(visitor);
+            futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        if( triangles == null ) {
+                            tris.visit(start, end, visitor);
+                        } else {
+                            visit(tris, triangles, start, end, visitor);
+                        }
+                    }
+                }));
+        }
+        
+        try {
+            for( Future<?> f : futures ) {
+                f.get();
+            }
+        } catch( InterruptedException e ) {
+            throw new RuntimeException("Interrupted visiting triangles", e);
+        } catch( ExecutionException e ) {
+            throw new RuntimeException("Error visiting triangles", e.getCause());
+        }
+        return visitors;
+    }
+ 
+    /**
+     *  Visits the specified triangles, or all of the triangles if 'triangles'
+     *  is null, with the specified visitor and returns the number visited.
+     *  If there is an executor and more than DEFAULT_CHUNK_SIZE triangles
+     *  then they are split across the executor with a chunk visitor for 
+     *  each and the chunks are merged back into the visitor in triangle 
+     *  order.  Otherwise the visitor sees them all on the calling thread.
+     */   
+    public static <T extends TriangleVisitor> int visit( MeshTriangles tris, int[] triangles, 
+                                                         ExecutorService executor,
+                                                         final MergeableVisitor<T> visitor ) {
+        int count = triangles == null ? tris.getTriangleCount() : triangles.length;
+        if( executor == null || count <= DEFAULT_CHUNK_SIZE ) {
+            return visit(tris, triangles, visitor);
+        }
+        List<T> chunks = visit(tris, triangles, DEFAULT_CHUNK_SIZE, executor, 
+                new VisitorFactory<T>() {
+                    public T createVisitor() {
+                        return visitor.createChunkVisitor();
+                    }
+                });
+        for( T chunk : chunks ) {
+            visitor.merge(chunk);
+        }
+        return count;
+    }
+}
@@ -36,22 +36,17 @@
 
 package com.simsilica.iso.tri;
 
-import com.jme3.math.Vector2f;
-import com.jme3.math.Vector3f;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
-import com.jme3.scene.VertexBuffer;
-import com.jme3.scene.VertexBuffer.Type;
-import com.jme3.scene.mesh.IndexBuffer;
-import java.nio.FloatBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- *
+ *  Utility methods for walking the triangles of meshes and
+ *  scene graphs.
  *
  *  @author    Paul Speed
  */
@@ -67,26 +62,22 @@ public class TriangleUtils {
         if( mesh.getVertexCount() == 0 ) {
             return 0;
         }
-        switch( mesh.getMode() ) {
-            case LineLoop:
-            case Lines:
-            case LineStrip:
-            case Points:
-                return 0; // no triangles in those
-            case Hybrid:
-            case TriangleFan:
-            case TriangleStrip:
-                throw new UnsupportedOperationException("Mesh type not yet supported:" + mesh.getMode());
-            case Triangles:
-                if( mesh.getIndexBuffer() != null ) {
-                    return doIndexedTriangles(mesh, proc);
-                } else {
-                    return doTriangles(mesh, proc);
-                }
-            default:
-                return 0;                
-        }       
-    }  
+        MeshTriangles tris = new MeshTriangles(mesh);
+        return tris.visit(new ProcessorAdapter(proc));
+    }
+ 
+    /**
+     *  Processes the triangles from start, inclusive, to end, exclusive.
+     *  Large meshes can be split into ranges processed by different threads
+     *  as long as each thread has its own TriangleProcessor.
+     */   
+    public static int processTriangles( Mesh mesh, int start, int end, TriangleProcessor proc ) {
+        if( mesh.getVertexCount() == 0 ) {
+            return 0;
+        }
+        MeshTriangles tris = new MeshTriangles(mesh);
+        return tris.visit(start, end, new ProcessorAdapter(proc));
+    }
     
     public static int processTriangles( Spatial s, TriangleProcessor proc ) {
         if( log.isTraceEnabled() ) {
@@ -104,62 +95,44 @@ public class TriangleUtils {
         }
         return count;
     }
-    
-    protected static int doTriangles( Mesh mesh, TriangleProcessor proc ) {
-        throw new UnsupportedOperationException("Non-indexed triangles not yet supported.");
-    }
-     
-    protected static int doIndexedTriangles( Mesh mesh, TriangleProcessor proc ) {
-        Triangle tri = new Triangle();
  
-        VertexBuffer vbPos = mesh.getBuffer(Type.Position);
-        int posSize = vbPos.getNumComponents();        
-        VertexBuffer vbNorms = mesh.getBuffer(Type.Normal);
-        int normSize = 0;        
-        VertexBuffer vbTexes = mesh.getBuffer(Type.TexCoord);
-        int texesSize = 0;        
-                
-        FloatBuffer pos = ((FloatBuffer)vbPos.getData()).duplicate();
-        FloatBuffer norms = null;
-        if( vbNorms != null ) {
-            norms = ((FloatBuffer)vbNorms.getData()).duplicate();
-            normSize = vbNorms.getNumComponents();        
+    /**
+     *  Visits the triangles of every geometry under the specified
+     *  spatial without copying any vertex data.
+     */   
+    public static int visitTriangles( Spatial s, TriangleVisitor visitor ) {
+        int count = 0;    
+        if( s instanceof Node ) {
+            for( Spatial child : ((Node)s).getChildren() ) {
+                count += visitTriangles(child, visitor);
+            }
+        } else if( s instanceof Geometry ) {
+            Mesh mesh = ((Geometry)s).getMesh();
+            if( mesh.getVertexCount() > 0 ) {
+                count += new MeshTriangles(mesh).visit(visitor);
+            }
+        } else {
+            throw new UnsupportedOperationException("Unsupported spatial type:" + s);
         }
-        FloatBuffer texes = null;
-        if( vbTexes != null ) {
-            texes = ((FloatBuffer)vbTexes.getData()).duplicate();
-            texesSize = vbTexes.getNumComponents();
+        return count;
+    }
+ 
+    /**
+     *  Fills in a reused Triangle for TriangleProcessors that want
+     *  the whole triangle.
+     */   
+    protected static class ProcessorAdapter implements TriangleVisitor {
+        private TriangleProcessor proc;
+        private Triangle tri = new Triangle();
+        
+        public ProcessorAdapter( TriangleProcessor proc ) {
+            this.proc = proc;
         }
-          
-        IndexBuffer ib = mesh.getIndexBuffer();
-        int size = ib.size();
-        int triangleIndex = 0;
-        for( int i = 0; i < size; ) {
-            for( int v = 0; v < 3; v++ ) {
-                int index = ib.get(i++);
-                tri.indexes[v] = index;
-                
-                pos.position(index * posSize);
-                Vector3f vert = tri.verts[v];
-                vert.x = pos.get();   
-                vert.y = pos.get();   
-                vert.z = pos.get();
-                if( norms != null ) {
-                    norms.position(index * normSize);
-                    Vector3f norm = tri.norms[v];
-                    norm.x = norms.get();    
-                    norm.y = norms.get();    
-                    norm.z = norms.get();    
-                }   
-                if( texes != null ) {
-                    texes.position(index * texesSize);
-                    Vector2f tex = tri.texes[v];
-                    tex.x = texes.get();    
-                    tex.y = texes.get();    
-                }   
-            }
-            proc.processTriangle(mesh, triangleIndex++, tri); 
+        
+        @Override
+        public void visitTriangle( MeshTriangles source, int triangle, int v0, int v1, int v2 ) {
+            source.getTriangle(v0, v1, v2, tri);
+            proc.processTriangle(source.getMesh(), triangle, tri);
         }
-        return triangleIndex;    
-    }    
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * $Id$
+ * 
+ * Copyright (c) 2014, Simsilica, LLC
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright 
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its 
+ *    contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) 
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED 
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simsilica.iso.util;
+
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer.Type;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+
+/**
+ *  A coarse height map of a mesh that holds the highest vertex in 
+ *  each of a square grid of x/z columns.  Heights are in the same 
+ *  space as the mesh.  Columns that have no vertexes are 
+ *  Float.NEGATIVE_INFINITY.  This is cheap to build along with a 
+ *  terrain mesh and lets things like horizon checks test against the 
+ *  terrain without sampling the density field.  It is read-only once 
+ *  built so any thread can use it.
+ *
+ *  @author    Paul Speed
+ */
+public class ColumnHeights {
+
+    private int columns;
+    private float xColumnSize;
+    private float zColumnSize;
+    private float[] heights;
+    
+    /**
+     *  Creates column heights for the mesh's vertexes that fall in the 
+     *  area from 0, 0 to xSize, zSize split into columns x columns.
+     *  Vertexes outside of that area are clamped to the edge columns.
+     */
+    public ColumnHeights( Mesh mesh, float xSize, float zSize, int columns ) {
+        this.columns = columns;
+        this.xColumnSize = xSize / columns;
+        this.zColumnSize = zSize / columns;
+        this.heights = new float[columns * columns];
+        Arrays.fill(heights, Float.NEGATIVE_INFINITY);
+ 
+        FloatBuffer pos = mesh.getFloatBuffer(Type.Position);
+        if( pos == null ) {
+            return;
+        }
+        int count = mesh.getVertexCount();
+        for( int i = 0; i < count; i++ ) {
+            float x = pos.get(i * 3);
+            float y = pos.get(i * 3 + 1);
+            float z = pos.get(i * 3 + 2);
+            int index = toIndex(x, z);
+            if( y > heights[index] ) {
+                heights[index] = y;
+            }
+        }
+    }
+    
+    public int getColumns() {
+        return columns;
+    }
+ 
+    /**
+     *  Returns the highest vertex in the column containing x, z 
+     *  or Float.NEGATIVE_INFINITY if the column was empty.
+     */   
+    public float getHeight( float x, float z ) {
+        return heights[toIndex(x, z)];
+    }
+    
+    protected int toIndex( float x, float z ) {
+        int i = Math.max(0, Math.min(columns - 1, (int)(x / xColumnSize)));
+        int j = Math.max(0, Math.min(columns - 1, (int)(z / zColumnSize)));
+        return j * columns + i;
+    }
+}
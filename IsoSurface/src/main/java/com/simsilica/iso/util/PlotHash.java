@@ -0,0 +1,87 @@
+/*
+ * $Id$
+ * 
+ * Copyright (c) 2014, Simsilica, LLC
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright 
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its 
+ *    contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) 
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED 
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simsilica.iso.util;
+
+
+/**
+ *  Counter-based random values for plotting.  Instead of pulling
+ *  values from a shared sequence in the order that things get plotted,
+ *  each value is a hash of a world seed, a world x/z location, and a 
+ *  salt like the tree type.  The same spot always gets the same value
+ *  no matter which zone, thread, or order plots it.
+ *
+ *  @author    Paul Speed
+ */
+public class PlotHash {
+
+    // Locations are snapped to this many steps per world unit
+    // before hashing.
+    private static final float STEPS_PER_UNIT = 16;
+
+    /**
+     *  Returns a well mixed 64 bit hash of the specified values.
+     */
+    public static long hash( long seed, int x, int z, int salt ) {
+        long h = mix(seed);
+        h = mix(h ^ (x & 0xffffffffL));
+        h = mix(h ^ (((long)z << 32) | (salt & 0xffffffffL)));
+        return h;
+    }
+ 
+    /**
+     *  Returns a value between 0, inclusive, and 1, exclusive, for the
+     *  specified world location. 
+     */   
+    public static float nextFloat( long seed, float x, float z, int salt ) {
+        long h = hash(seed, snap(x), snap(z), salt);
+        return (h >>> 40) / (float)(1 << 24);
+    }
+    
+    protected static int snap( float v ) {
+        return (int)Math.floor(v * STEPS_PER_UNIT);
+    }
+ 
+    /**
+     *  The SplitMix64 finalizer.
+     */   
+    protected static long mix( long h ) {
+        h += 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -63,8 +63,8 @@ public class PagedGridMovementHandler implements MovementHandler {
         setLocation(camera.getLocation());
     }
     
-    protected void setLandLocation( float x, float z ) {
-        pagedGrid.setCenterWorldLocation(x, z);
+    protected void setLandLocation( float x, float y, float z ) {
+        pagedGrid.setCenterWorldLocation(x, y, z);
     }
     
     @Override
@@ -85,7 +85,7 @@ public class PagedGridMovementHandler implements MovementHandler {
         
         // Pass the land location onto the setLandLocation() method for
         // applying to the paged grid.
-        setLandLocation(loc.x, loc.z);
+        setLandLocation(loc.x, loc.y, loc.z);
         
         // Give the camera it's new location.
         camera.setLocation(camLoc);
@@ -0,0 +1,523 @@
+/*
+ * $Id$
+ * 
+ * Copyright (c) 2014, Simsilica, LLC
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright 
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its 
+ *    contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) 
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED 
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simsilica.iso.demo;
+
+import com.google.common.base.Supplier;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
+import com.simsilica.builder.Builder;
+import com.simsilica.builder.BuilderLane;
+import com.simsilica.iso.IsoTerrainZoneFactory;
+import com.simsilica.iso.MeshGenerator;
+import com.simsilica.iso.fractal.GemsFractalDensityVolume;
+import com.simsilica.iso.mc.MarchingCubesMeshGenerator;
+import com.simsilica.iso.plot.GrassZone;
+import com.simsilica.iso.util.BilinearArray;
+import com.simsilica.pager.Grid;
+import com.simsilica.pager.PagedGrid;
+import com.simsilica.pager.Zone;
+import com.simsilica.pager.ZoneDataKey;
+import com.simsilica.pager.ZoneFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ *  Runs the demo's terrain and grass paging without a display so
+ *  that paging quality can be measured and checked automatically.
+ *  A camera is moved along a scripted path on a fixed frame clock.
+ *  Each frame, the builder's updates are applied just like BuilderState
+ *  would and the harness records how long zones take to become visible,
+ *  how many zones near the camera are still missing, and how long the
+ *  apply took.
+ *
+ *  <p>Settings are passed as name=value arguments:</p>
+ *  <pre>
+ *  path=line|circle|turn   camera path, default line
+ *  speed=20                camera speed in world units per second
+ *  frames=1800             number of frames to run
+ *  frameMillis=16          the frame time
+ *  threads=4               builder threads
+ *  maxUpdates=4            applyUpdates() limit per frame
+ *  nearCells=1             cells around the camera counted for missing zones
+ *  maxMissing=-1           fail if the average near missing exceeds this
+ *  maxApplyMillis=-1       fail if the 95th percentile apply time exceeds this
+ *  maxVisibleMillis=-1     fail if the 95th percentile time-to-visible exceeds this
+ *  grassInstancing=false   use instanced grass instead of baked blades
+ *  plotThreads=0           extra threads for parallel grass plotting
+ *  grassKeepAlive=10       grass zones kept alive after leaving the window
+ *  </pre>
+ *
+ *  <p>Time-to-visible is measured from when the pager creates the zone,
+ *  which for prefetched zones is before they enter the window.  Near
+ *  missing counts every layer of the cells around the camera.</p>
+ *
+ *  <p>Exits with 0 if all of the limits pass and 1 otherwise so it can be
+ *  used as a regression check.</p>
+ *
+ *  @author    Paul Speed
+ */
+public class PagingHarness {
+
+    static Logger log = LoggerFactory.getLogger(PagingHarness.class);
+
+    private Map<String, String> settings = new HashMap<String, String>();
+    
+    private Builder builder;
+    private ExecutorService plotExecutor;
+    private PagedGrid pager;
+    private List<TrackingFactory> factories = new ArrayList<TrackingFactory>();
+    private long frame;
+    private long[] applyNanos;
+    
+    public PagingHarness( String... args ) {
+        for( String arg : args ) {
+            int split = arg.indexOf('=');
+            if( split < 0 ) {
+                throw new IllegalArgumentException("Expected name=value:" + arg);
+            }
+            settings.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+    }
+ 
+    public static void main( String... args ) throws Exception {
+        PagingHarness harness = new PagingHarness(args);
+        boolean passed = harness.run();
+        System.exit(passed ? 0 : 1);
+    }
+ 
+    protected String getString( String name, String defaultValue ) {
+        String result = settings.get(name);
+        return result == null ? defaultValue : result;
+    }
+    
+    protected int getInt( String name, int defaultValue ) {
+        return Integer.parseInt(getString(name, String.valueOf(defaultValue)));
+    }
+    
+    protected float getFloat( String name, float defaultValue ) {
+        return Float.parseFloat(getString(name, String.valueOf(defaultValue)));
+    }
+ 
+    /**
+     *  Sets up the pagers the same way that TerrainState does, minus
+     *  the materials and the trees.
+     */   
+    protected void setup() {
+        builder = new Builder("Harness", getInt("threads", 4));
+        BuilderLane terrainLane = builder.createLane("terrain", 0.5f, 4);
+        BuilderLane vegetationLane = builder.createLane("vegetation", 0.4f, 3);
+ 
+        final int cx = TerrainState.CHUNK_SIZE_XZ;
+        int cy = TerrainState.CHUNK_SIZE_Y;
+        int cz = TerrainState.CHUNK_SIZE_XZ;
+        int radius = (int)Math.ceil(192f / cx);
+        int yLayers = (96 - -32) / cy;
+        int yBase = -42;
+        
+        Grid rootGrid = new Grid(new Vector3f(cx, cy, cz), new Vector3f(0, yBase, 0));
+        Supplier<MeshGenerator> generator = new Supplier<MeshGenerator>() {
+                private ThreadLocal<MarchingCubesMeshGenerator> generator = new ThreadLocal<MarchingCubesMeshGenerator>() {
+                        @Override 
+                        protected MarchingCubesMeshGenerator initialValue() {
+                            return new MarchingCubesMeshGenerator(cx, TerrainState.CHUNK_SIZE_Y, cx, 1);
+                        }                                                               
+                    };
+                
+                @Override
+                public MeshGenerator get() {
+                    return generator.get();
+                }
+            };                
+        ZoneFactory rootFactory = new IsoTerrainZoneFactory(new GemsFractalDensityVolume(), 
+                                                            new Vector3f(cx, cy, cz),
+                                                            new Vector3f(0, yBase, 0),
+                                                            generator, null, false);
+        TrackingFactory terrain = new TrackingFactory("terrain", rootFactory);
+        factories.add(terrain);
+        
+        pager = new PagedGrid(terrain, builder, rootGrid, yLayers, radius);
+        pager.setBuilderLane(terrainLane);
+        pager.setTrackRelativeLocation(false);
+        pager.setWindowShape(PagedGrid.WindowShape.Circle);
+        pager.setPrefetch(true);
+        pager.setKeepAliveSize((radius * 2 + 1) * yLayers);
+        pager.setKeepAliveBudget(64 * 1024 * 1024);
+ 
+        // The real noise comes from a texture but for measuring we
+        // just need something repeatable
+        BilinearArray noise = new BilinearArray(512, 512);
+        Random random = new Random(0);
+        for( int x = 0; x < 512; x++ ) {
+            for( int y = 0; y < 512; y++ ) {
+                noise.set(x, y, random.nextInt());
+            }
+        }
+        
+        Grid grassGrid = new Grid(new Vector3f(32, 32, 32), new Vector3f(0, (yBase + 32), 0));
+        GrassZone.Factory grassFactory = new GrassZone.Factory(null, noise);
+        grassFactory.setUseInstancing(Boolean.parseBoolean(getString("grassInstancing", "false")));
+        int plotThreads = getInt("plotThreads", 0);
+        if( plotThreads > 0 ) {
+            plotExecutor = Executors.newFixedThreadPool(plotThreads);
+            grassFactory.setPlotExecutor(plotExecutor);
+        }
+        TrackingFactory grass = new TrackingFactory("grass", grassFactory);
+        factories.add(grass);
+        PagedGrid grassPager = new PagedGrid(pager, grass, builder, grassGrid, 2, 64 / 32);
+        grassPager.setPriorityBias(2);
+        grassPager.setTrackViewLocation(true);
+        grassPager.setBuilderLane(vegetationLane);
+        grassPager.setKeepAliveSize(getInt("grassKeepAlive", (64 / 32 * 2 + 1) * 2));
+        grassPager.setKeepAliveBudget(32 * 1024 * 1024);
+    }
+ 
+    /**
+     *  Returns the camera location for the specified time in seconds.
+     */   
+    protected Vector3f getCameraLocation( float time, Vector3f target ) {
+        String path = getString("path", "line");
+        float speed = getFloat("speed", 20);
+        float distance = time * speed;
+        
+        // Roughly where the demo starts
+        target.set(-4, 19, -21);
+        if( "line".equals(path) ) {
+            target.x += distance;
+        } else if( "circle".equals(path) ) {
+            float r = 256;
+            float angle = distance / r;
+            target.x += (float)Math.sin(angle) * r;
+            target.z += r - (float)Math.cos(angle) * r;
+        } else if( "turn".equals(path) ) {
+            // Out and back again
+            float half = getInt("frames", 1800) * getInt("frameMillis", 16) / 1000f * speed * 0.5f;
+            target.x += distance < half ? distance : half - (distance - half);
+        } else {
+            throw new IllegalArgumentException("Unknown path:" + path);
+        }
+        return target;
+    }
+ 
+    public boolean run() throws InterruptedException {
+        setup();
+        
+        int frames = getInt("frames", 1800);
+        int frameMillis = getInt("frameMillis", 16);
+        int maxUpdates = getInt("maxUpdates", 4);
+        int nearCells = getInt("nearCells", 1);
+        applyNanos = new long[frames];
+        
+        Vector3f loc = new Vector3f();
+        long next = System.nanoTime();
+        for( frame = 0; frame < frames; frame++ ) {
+            getCameraLocation(frame * frameMillis / 1000f, loc);
+            pager.setCenterWorldLocation(loc.x, loc.y, loc.z);
+            
+            long start = System.nanoTime();
+            builder.applyUpdates(maxUpdates);
+            applyNanos[(int)frame] = System.nanoTime() - start;
+            
+            for( TrackingFactory f : factories ) {
+                f.countMissing(loc, nearCells);
+            }
+            
+            // Keep the frame clock steady so that the builder threads
+            // get the same amount of time per frame that they would in
+            // a real application
+            next += frameMillis * 1000000L;
+            long sleep = next - System.nanoTime();
+            if( sleep > 0 ) {
+                Thread.sleep(sleep / 1000000L, (int)(sleep % 1000000L));
+            }
+        }
+        
+        // Report before shutting down so that zones released on the
+        // way out aren't counted as abandoned
+        boolean passed = report(frames, frameMillis);
+        
+        pager.release();
+        builder.applyUpdates(Integer.MAX_VALUE);
+        builder.shutdown();
+        if( plotExecutor != null ) {
+            plotExecutor.shutdown();
+        }
+ 
+        return passed;
+    }
+ 
+    protected boolean report( int frames, int frameMillis ) {
+        boolean passed = true;
+        
+        long[] sorted = applyNanos.clone();
+        java.util.Arrays.sort(sorted);
+        long total = 0;
+        for( long l : sorted ) {
+            total += l;
+        }
+        double applyAvg = total / (double)frames / 1000000.0;
+        double apply95 = sorted[(int)(frames * 0.95)] / 1000000.0;
+        double applyMax = sorted[frames - 1] / 1000000.0;
+        
+        System.out.println("Paging harness: path=" + getString("path", "line") 
+                            + " speed=" + getFloat("speed", 20) + " frames=" + frames
+                            + " frameMillis=" + frameMillis);
+        System.out.println(String.format("  apply ms avg:%.3f p95:%.3f max:%.3f", applyAvg, apply95, applyMax));
+        passed &= check("maxApplyMillis", apply95);
+        
+        for( TrackingFactory f : factories ) {
+            List<Long> visible = f.visibleFrames;
+            Collections.sort(visible);
+            double visible50 = visible.isEmpty() ? 0 : visible.get(visible.size() / 2) * frameMillis;
+            double visible95 = visible.isEmpty() ? 0 : visible.get((int)(visible.size() * 0.95)) * frameMillis;
+            double missing = f.missingTotal / (double)frames; 
+            System.out.println(String.format("  %s: created:%d visible:%d abandoned:%d", 
+                                             f.name, f.created, visible.size(), f.abandoned));
+            System.out.println(String.format("    time-to-visible ms median:%.1f p95:%.1f", visible50, visible95));
+            System.out.println(String.format("    near missing avg:%.2f max:%d frames with missing:%d", 
+                                             missing, f.missingMax, f.missingFrames));
+            if( f == factories.get(0) ) {
+                // Only the terrain is checked, vegetation follows it 
+                passed &= check("maxVisibleMillis", visible95);
+                passed &= check("maxMissing", missing);
+            }
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+ 
+    protected boolean check( String name, double value ) {
+        float limit = getFloat(name, -1);
+        if( limit < 0 || value <= limit ) {
+            return true;
+        }
+        System.out.println("  " + name + " exceeded:" + value + " > " + limit);
+        return false;
+    }
+ 
+    /**
+     *  Wraps the real zone factory so that the zones it creates can
+     *  report when they are applied and released.
+     */
+    protected class TrackingFactory implements ZoneFactory {
+        private String name;
+        private ZoneFactory delegate;
+        private Grid grid;
+        
+        // Only touched from the frame loop and apply(), ie: one thread
+        private Map<Long, TrackedZone> live = new HashMap<Long, TrackedZone>();
+        private List<Long> visibleFrames = new ArrayList<Long>();
+        private int created;
+        private int abandoned;
+        private long missingTotal;
+        private int missingMax;
+        private int missingFrames;
+        
+        public TrackingFactory( String name, ZoneFactory delegate ) {
+            this.name = name;
+            this.delegate = delegate;
+        }
+        
+        @Override
+        public Zone createZone( PagedGrid pg, int xCell, int yCell, int zCell ) {
+            this.grid = pg.getGrid();
+            created++;
+            TrackedZone result = new TrackedZone(this, delegate.createZone(pg, xCell, yCell, zCell));
+            live.put(key(xCell, yCell, zCell), result);
+            return result;
+        }
+ 
+        protected long key( int x, int y, int z ) {
+            return ((long)x << 40) ^ ((long)(y & 0xff) << 32) ^ (z & 0xffffffffL);
+        }
+ 
+        /**
+         *  Counts the zones within nearCells of the location that
+         *  exist but have not been applied.
+         */       
+        protected void countMissing( Vector3f loc, int nearCells ) {
+            if( grid == null ) {
+                return;
+            }
+            int xCenter = grid.toCellX(loc.x);
+            int zCenter = grid.toCellZ(loc.z);
+            int missing = 0;
+            for( TrackedZone zone : live.values() ) {
+                if( zone.visibleFrame >= 0 ) {
+                    continue;
+                }
+                if( Math.abs(zone.getXCell() - xCenter) <= nearCells 
+                    && Math.abs(zone.getZCell() - zCenter) <= nearCells ) {
+                    missing++;
+                }
+            }
+            missingTotal += missing;
+            missingMax = Math.max(missingMax, missing);
+            if( missing > 0 ) {
+                missingFrames++;
+            }
+        }
+    }
+ 
+    /**
+     *  Delegates to the real zone, recording the frame it was created
+     *  and the frame it was first applied.
+     */   
+    protected class TrackedZone implements Zone {
+        private TrackingFactory factory;
+        private Zone delegate;
+        private long createdFrame;
+        private long visibleFrame = -1;
+        
+        public TrackedZone( TrackingFactory factory, Zone delegate ) {
+            this.factory = factory;
+            this.delegate = delegate;
+            this.createdFrame = frame;
+        }
+ 
+        @Override
+        public Node getZoneRoot() {
+            return delegate.getZoneRoot();
+        }
+ 
+        @Override
+        public Grid getGrid() {
+            return delegate.getGrid();
+        }
+ 
+        @Override
+        public void setParentZones( Zone... parentZones ) {
+            delegate.setParentZones(parentZones);
+        }
+ 
+        @Override
+        public boolean setRelativeGridLocation( int x, int y, int z ) {
+            return delegate.setRelativeGridLocation(x, y, z);
+        }
+ 
+        @Override
+        public boolean setViewLocation( float x, float z ) {
+            return delegate.setViewLocation(x, z);
+        }
+ 
+        @Override
+        public int getXCell() {
+            return delegate.getXCell();
+        }
+ 
+        @Override
+        public int getYCell() {
+            return delegate.getYCell();
+        }
+ 
+        @Override
+        public int getZCell() {
+            return delegate.getZCell();
+        }
+ 
+        @Override
+        public float getXWorld() {
+            return delegate.getXWorld();
+        }
+ 
+        @Override
+        public float getYWorld() {
+            return delegate.getYWorld();
+        }
+ 
+        @Override
+        public float getZWorld() {
+            return delegate.getZWorld();
+        }
+ 
+        @Override
+        public Vector3f getWorldLocation( Vector3f target ) {
+            return delegate.getWorldLocation(target);
+        }
+ 
+        @Override
+        public void resetPriority( int xCenter, int yCenter, int zCenter, int bias ) {
+            delegate.resetPriority(xCenter, yCenter, zCenter, bias);
+        }
+ 
+        @Override
+        public int getPriority() {
+            return delegate.getPriority();
+        }
+ 
+        @Override
+        public <T> T getZoneData( ZoneDataKey<T> key ) {
+            return delegate.getZoneData(key);
+        }
+ 
+        @Override
+        public void build() {
+            delegate.build();
+        }
+ 
+        @Override
+        public void apply( Builder builder ) {
+            delegate.apply(builder);
+            if( visibleFrame < 0 ) {
+                visibleFrame = frame;
+                factory.visibleFrames.add(frame - createdFrame);
+            }
+        }
+ 
+        @Override
+        public void release( Builder builder ) {
+            delegate.release(builder);
+            if( visibleFrame < 0 ) {
+                factory.abandoned++;
+            }
+            factory.live.remove(factory.key(getXCell(), getYCell(), getZCell()));
+        }
+        
+        @Override
+        public String toString() {
+            return "Tracked[" + delegate + "]";
+        }
+    }
+}
@@ -45,16 +45,19 @@ import com.jme3.material.MaterialDef;
 import com.jme3.material.RenderState.BlendMode;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Node;
 import com.jme3.scene.SceneGraphVisitorAdapter;
 import com.jme3.texture.Texture;
 import com.jme3.texture.Texture.WrapMode;
 import com.simsilica.builder.Builder;
+import com.simsilica.builder.BuilderLane;
 import com.simsilica.builder.BuilderState;
 import com.simsilica.fx.sky.AtmosphericParameters;
 import com.simsilica.fx.sky.SkyState;
 import com.simsilica.iso.DensityVolume;
+import com.simsilica.iso.HorizonPriorityPolicy;
 import com.simsilica.iso.IsoTerrainZoneFactory;
 import com.simsilica.iso.MeshGenerator;
 import com.simsilica.iso.fractal.GemsFractalDensityVolume;
@@ -118,6 +121,12 @@ public class TerrainState extends BaseAppState {
      *  subspacing, ie: only one parent per child.)
      */
     private Grid rootGrid;
+ 
+    /**
+     *  Lets the pagers build what the camera can see first.
+     */
+    private HorizonPriorityPolicy priorityPolicy;
+    private Vector3f viewLocation = new Vector3f();
      
     private Material terrainMaterial;
     private Material grassMaterial;
@@ -173,6 +182,14 @@ public class TerrainState extends BaseAppState {
         // The builder will build the pager's zones on a background thread and
         // apply them on the update thread.
         Builder builder = getState(BuilderState.class).getBuilder();
+ 
+        // Split the builder threads into lanes so that a burst of cheap
+        // vegetation zones can't starve the terrain zones that they all
+        // depend on anyway.  Any lane can still use the threads that the
+        // other lanes leave idle, up to its own cap.
+        BuilderLane terrainLane = getLane(builder, "terrain", 0.5f, 4);
+        BuilderLane vegetationLane = getLane(builder, "vegetation", 0.4f, 3);
+        BuilderLane debugLane = getLane(builder, "debug", 0.1f, 1);
         
         // Setup the grid size information based on
         // the trunk size and a potential xz scaling.
@@ -272,6 +289,25 @@ public class TerrainState extends BaseAppState {
                                                             false);
                 
         pager = new PagedGrid(rootFactory, builder, rootGrid, yLayers, radius);        
+        pager.setBuilderLane(terrainLane);
+        
+        // Terrain zones don't care where they are relative to the center
+        pager.setTrackRelativeLocation(false);
+        
+        // The fog hides anything past the radius anyway so there is no
+        // reason to build the corners
+        pager.setWindowShape(PagedGrid.WindowShape.Circle);
+        
+        // Build the visible terrain before what's behind us or behind hills
+        priorityPolicy = new HorizonPriorityPolicy(pager);
+        priorityPolicy.setFieldOfView(app.getCamera());
+        pager.setPriorityPolicy(priorityPolicy);
+        
+        // Build the next row ahead of the camera and hang onto the
+        // last row we left in case the player turns around.
+        pager.setPrefetch(true);
+        pager.setKeepAliveSize((radius * 2 + 1) * yLayers);
+        pager.setKeepAliveBudget(64 * 1024 * 1024);
         land.attachChild(pager.getGridRoot());
         
         boolean grass = true;
@@ -293,6 +329,13 @@ public class TerrainState extends BaseAppState {
             PagedGrid grassPager = new PagedGrid(pager, grassFactory, builder, grassGrid, 2, grassDistance / 32);
             grassPager.setPriorityBias(2);
             grassPager.setTrackViewLocation(true);
+            grassPager.setSkipEmptyParents(true);
+            grassPager.setBuilderLane(vegetationLane);
+            
+            // The grass cells are small and cross edges often so they
+            // get their own cache of the last row
+            grassPager.setKeepAliveSize((grassDistance / 32 * 2 + 1) * 2);
+            grassPager.setKeepAliveBudget(32 * 1024 * 1024);
             land.attachChild(grassPager.getGridRoot());
         } 
 
@@ -311,6 +354,7 @@ public class TerrainState extends BaseAppState {
             int plotDistance = 32; //64;
             PagedGrid plotPager = new PagedGrid(pager, plotFactory, builder, plotGrid, 2, plotDistance / 32);
             plotPager.setPriorityBias(1);
+            plotPager.setBuilderLane(vegetationLane);
             land.attachChild(plotPager.getGridRoot());
         } 
 
@@ -348,6 +392,12 @@ public class TerrainState extends BaseAppState {
             int treeDistance = 128;
             PagedGrid treePager = new PagedGrid(pager, treeFactory, builder, treeGrid, 2, treeDistance / treeGridSpacing);
             //treePager.setPriorityBias(1);
+            treePager.setBuilderLane(vegetationLane);
+            treePager.setPriorityPolicy(priorityPolicy);
+            treePager.setWindowShape(PagedGrid.WindowShape.Circle);
+            treePager.setSkipEmptyParents(true);
+            treePager.setKeepAliveSize((treeDistance / treeGridSpacing * 2 + 1) * 2);
+            treePager.setKeepAliveBudget(32 * 1024 * 1024);
             land.attachChild(treePager.getGridRoot());
         }
 
@@ -360,6 +410,7 @@ public class TerrainState extends BaseAppState {
             int debugDistance = 128;
             Grid debugGrid = new Grid(new Vector3f(debugSpacing, 32, debugSpacing), new Vector3f(0, (yBase + 32), 0));
             PagedGrid debugPager = new PagedGrid(pager, debugFactory, builder, debugGrid, 2, debugDistance/debugSpacing);
+            debugPager.setBuilderLane(debugLane);
             land.attachChild(debugPager.getGridRoot());
         }
 
@@ -372,8 +423,8 @@ public class TerrainState extends BaseAppState {
         // pager instead of directly to the camera
         MovementHandler mover = new PagedGridMovementHandler(pager, app.getCamera()) {
                     @Override 
-                    protected void setLandLocation( float x, float z ) {
-                        super.setLandLocation(x, z);
+                    protected void setLandLocation( float x, float y, float z ) {
+                        super.setLandLocation(x, y, z);
                         worldOffset.set(x, 0, z);
                     }
                 };
@@ -408,6 +459,14 @@ public class TerrainState extends BaseAppState {
         resetAtmospherics();
     }
     
+    protected BuilderLane getLane( Builder builder, String name, float weight, int maxThreads ) {
+        BuilderLane result = builder.getLane(name);
+        if( result == null ) {
+            result = builder.createLane(name, weight, maxThreads);
+        }
+        return result;
+    }
+    
     public void setAirDensity( float f ) {
         // Really we are setting the planet radius relative
         // to our land units.  Smaller radius means that a unit 
@@ -441,6 +500,17 @@ public class TerrainState extends BaseAppState {
         pager.release();
     }
 
+    @Override
+    public void update( float tpf ) {
+        // Let the priority policy know where we are looking and resort
+        // the pending builds if we've turned far enough.
+        Camera cam = getApplication().getCamera();
+        viewLocation.set(worldOffset.x, cam.getLocation().y, worldOffset.z);
+        if( priorityPolicy.setView(viewLocation, cam.getDirection()) ) {
+            pager.refreshPriorities();
+        }
+    }
+
     @Override
     protected void enable() {
         ((SimpleApplication)getApplication()).getRootNode().attachChild(land);
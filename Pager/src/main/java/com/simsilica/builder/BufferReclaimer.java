@@ -0,0 +1,364 @@
+/*
+ * $Id$
+ * 
+ * Copyright (c) 2014, Simsilica, LLC
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright 
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its 
+ *    contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) 
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED 
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simsilica.builder;
+
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ *  Frees direct buffers in the background so that the threads
+ *  releasing meshes don't have to pay for it.  destroyDirectBuffer()
+ *  goes through reflection and when a whole ring of zones unloads
+ *  at once that adds up to a visible hitch.  Instead, dead meshes 
+ *  are queued here and a single daemon thread destroys their buffers
+ *  in small time-sliced batches.
+ *
+ *  <p>Buffers can also be registered with track() when they are
+ *  created.  The reclaimer then keeps a running count of the direct
+ *  memory that is still outstanding which is a lot more useful for
+ *  finding leaks than per-class allocation counters.</p>
+ *
+ *  <p>Buffers that came from the DirectBufferPool are returned to 
+ *  the pool instead of being destroyed, even when they are reclaimed
+ *  more than once.</p>
+ *
+ *  @author    Paul Speed
+ */
+public class BufferReclaimer {
+
+    static Logger log = LoggerFactory.getLogger(BufferReclaimer.class);
+
+    private static BufferReclaimer instance;
+    
+    private final BlockingQueue<Buffer> queue = new LinkedBlockingQueue<Buffer>();
+    
+    // Buffers don't use identity for equals() so we have to be
+    // careful to use an identity map.  Guarded by itself.
+    private final Map<Buffer, Boolean> tracked = new IdentityHashMap<Buffer, Boolean>();
+    private final Map<Buffer, Boolean> queued = new IdentityHashMap<Buffer, Boolean>();
+    
+    private final AtomicLong trackedBytes = new AtomicLong();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong destroyedBytes = new AtomicLong();
+    private final AtomicInteger destroyedCount = new AtomicInteger();
+    private final AtomicInteger recycledCount = new AtomicInteger();
+    
+    private volatile DirectBufferPool pool = DirectBufferPool.getInstance();
+    
+    private volatile long batchNanos = 500000; // 0.5 ms
+    private volatile long batchPause = 1;      // ms
+    
+    private Thread worker;
+
+    public BufferReclaimer() {
+    }
+ 
+    /**
+     *  Sets the pool that reclaimed buffers are returned to when they
+     *  came from it.  Defaults to the shared DirectBufferPool.  Set it
+     *  to null to always destroy, but only if nothing reclaimed here
+     *  comes from a pool.
+     */
+    public void setPool( DirectBufferPool pool ) {
+        this.pool = pool;
+    }
+    
+    public DirectBufferPool getPool() {
+        return pool;
+    }
+ 
+    /**
+     *  Returns the shared reclaimer used by the zones and builder 
+     *  references in this library.
+     */   
+    public static synchronized BufferReclaimer getInstance() {
+        if( instance == null ) {
+            instance = new BufferReclaimer();
+        }
+        return instance;
+    }
+ 
+    /**
+     *  Sets the maximum amount of time that will be spent destroying
+     *  buffers before the reclaimer thread yields.  Defaults to 0.5 ms.
+     */   
+    public void setBatchTime( long time, TimeUnit unit ) {
+        this.batchNanos = unit.toNanos(time);
+    }
+    
+    public long getBatchTime( TimeUnit unit ) {
+        return unit.convert(batchNanos, TimeUnit.NANOSECONDS);
+    }
+ 
+    /**
+     *  Sets the time the reclaimer thread waits between batches
+     *  when there is still work queued.  Defaults to 1 ms.
+     */   
+    public void setBatchPause( long time, TimeUnit unit ) {
+        this.batchPause = unit.toMillis(time);
+    }
+    
+    public long getBatchPause( TimeUnit unit ) {
+        return unit.convert(batchPause, TimeUnit.MILLISECONDS);
+    }
+ 
+    /**
+     *  Registers all of the direct buffers in the specified mesh
+     *  as outstanding direct memory.
+     */   
+    public void track( Mesh mesh ) {
+        if( mesh == null ) {
+            return;
+        }
+        for( VertexBuffer vb : mesh.getBufferList() ) {
+            track(vb.getData());
+        }
+    }
+    
+    /**
+     *  Registers the specified buffer as outstanding direct memory.  Heap
+     *  buffers and buffers that are already tracked are ignored.
+     */
+    public void track( Buffer buffer ) {
+        if( buffer == null || !buffer.isDirect() ) {
+            return;
+        }
+        synchronized( tracked ) {
+            if( tracked.put(buffer, Boolean.TRUE) != null ) {
+                return;
+            }
+        }
+        trackedBytes.addAndGet(sizeOf(buffer));
+    }
+ 
+    /**
+     *  Queues all of the buffers of the specified mesh to be destroyed.
+     *  The caller must be sure that the mesh is no longer used by anything.
+     */   
+    public void reclaim( Mesh mesh ) {
+        if( mesh == null ) {
+            return;
+        }
+        for( VertexBuffer vb : mesh.getBufferList() ) {
+            reclaim(vb.getData());
+        }
+    }
+ 
+    /**
+     *  Queues the specified buffer to be destroyed on the reclaimer
+     *  thread.  Buffers that are already waiting in the queue are 
+     *  ignored.
+     */   
+    public void reclaim( Buffer buffer ) {
+        if( buffer == null || !buffer.isDirect() ) {
+            return;
+        }
+        synchronized( queued ) {
+            if( queued.put(buffer, Boolean.TRUE) != null ) {
+                return;
+            }
+        }
+        pendingBytes.addAndGet(sizeOf(buffer));
+        startWorker();
+        queue.add(buffer);
+    }
+ 
+    /**
+     *  Destroys everything currently in the queue on the calling
+     *  thread.  Useful during application shutdown.
+     */   
+    public void flush() {
+        Buffer buffer;
+        while( (buffer = queue.poll()) != null ) {
+            destroy(buffer);
+        }
+    }
+ 
+    /**
+     *  Returns the number of bytes of tracked direct memory that
+     *  have not been destroyed yet.  This includes the buffers that
+     *  are waiting in the queue.
+     */   
+    public long getOutstandingBytes() {
+        return trackedBytes.get();
+    }
+ 
+    /**
+     *  Returns the number of bytes waiting to be destroyed.
+     */   
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+    
+    public int getPendingCount() {
+        return queue.size();
+    }
+ 
+    /**
+     *  Returns the number of tracked buffers that have not been
+     *  destroyed yet.
+     */   
+    public int getOutstandingCount() {
+        synchronized( tracked ) {
+            return tracked.size();
+        }
+    }
+ 
+    /**
+     *  Returns the total number of bytes destroyed by this reclaimer.
+     */   
+    public long getDestroyedBytes() {
+        return destroyedBytes.get();
+    }
+    
+    public int getDestroyedCount() {
+        return destroyedCount.get();
+    }
+ 
+    /**
+     *  Returns the number of reclaimed buffers that were given back
+     *  to the pool instead of being destroyed.
+     */   
+    public int getRecycledCount() {
+        return recycledCount.get();
+    }
+ 
+    protected synchronized void startWorker() {
+        if( worker != null ) {
+            return;
+        }
+        worker = new Thread(new Reclaimer(), "BufferReclaimer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+ 
+    protected void destroy( Buffer buffer ) {
+        synchronized( queued ) {
+            if( queued.remove(buffer) == null ) {
+                // Someone else already got it
+                return;
+            }
+        }
+        int size = sizeOf(buffer);
+        pendingBytes.addAndGet(-size);
+        
+        boolean wasTracked;
+        synchronized( tracked ) {
+            wasTracked = tracked.remove(buffer) != null;
+        }
+        if( wasTracked ) {
+            trackedBytes.addAndGet(-size);
+        }
+        
+        DirectBufferPool p = pool;
+        if( p != null && p.release(buffer) ) {
+            // It went back to the pool... whether the pool kept it
+            // or not is its business.  The pool also claims buffers
+            // that it already has back so that reclaiming a mesh twice 
+            // can't free backing memory the pool has handed out again.
+            recycledCount.incrementAndGet();
+            return;
+        }
+        
+        if( log.isTraceEnabled() ) {
+            log.trace("--destroying buffer:" + buffer);
+        }
+        BufferUtils.destroyDirectBuffer(buffer);
+        destroyedBytes.addAndGet(size);
+        destroyedCount.incrementAndGet(); 
+    }
+ 
+    protected static int sizeOf( Buffer buffer ) {
+        int elementSize;
+        if( buffer instanceof ByteBuffer ) {
+            elementSize = 1;
+        } else if( buffer instanceof ShortBuffer || buffer instanceof CharBuffer ) {
+            elementSize = 2;
+        } else if( buffer instanceof DoubleBuffer || buffer instanceof LongBuffer ) {
+            elementSize = 8;
+        } else {
+            // Float and int
+            elementSize = 4;
+        }
+        return buffer.capacity() * elementSize;
+    }
+    
+    private class Reclaimer implements Runnable {
+        public void run() {
+            while( true ) {
+                try {
+                    Buffer buffer = queue.take();
+                    long start = System.nanoTime();
+                    destroy(buffer);
+                    
+                    // Keep going until the batch time runs out
+                    while( System.nanoTime() - start < batchNanos 
+                           && (buffer = queue.poll()) != null ) {
+                        destroy(buffer);
+                    }
+                    
+                    if( !queue.isEmpty() && batchPause > 0 ) {
+                        // Give everyone else a chance
+                        Thread.sleep(batchPause);
+                    }
+                } catch( InterruptedException e ) {
+                    log.info("Reclaimer thread interrupted");
+                    return; 
+                } catch( RuntimeException e ) {
+                    log.error("Error destroying buffer", e);
+                }
+            }
+        }
+    }
+}
@@ -39,12 +39,15 @@ package com.simsilica.builder;
 
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -63,6 +66,13 @@ import org.slf4j.LoggerFactory;
  *  resolving them on a specific thread (say the rendering
  *  thread, for example).
  *
+ *  <p>The worker threads can be split across any number of
+ *  BuilderLanes.  Each lane gets a weighted share of the threads
+ *  and can be capped to a maximum number of threads.  This keeps
+ *  a flood of cheap references in one lane from starving the
+ *  references in another.  References passed to build() without
+ *  a lane go into the default lane.</p>
+ *
  *  @author    Paul Speed
  */
 public class Builder {
@@ -74,26 +84,87 @@ public class Builder {
     private String name;
 
     private Map<BuilderReference,PrioritizedRef> refMap = new ConcurrentHashMap<BuilderReference,PrioritizedRef>();
-    private PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<Runnable>();
+    private LaneQueue queue = new LaneQueue();
+    private BuilderLane defaultLane;
     private ConcurrentLinkedQueue<PrioritizedRef> pausedItems = new ConcurrentLinkedQueue<PrioritizedRef>();
     private AtomicInteger pausedCount = new AtomicInteger();
 
     private PriorityBlockingQueue<PrioritizedRef> done = new PriorityBlockingQueue<PrioritizedRef>();
 
     private ThreadPoolExecutor executor;
+    private ThreadPoolExecutor releaseExecutor;
 
 
     public Builder( String name, int poolSize ) {        
         this.name = name;
+        this.defaultLane = createLane("default", 1, poolSize); 
         this.executor = new ThreadPoolExecutor( poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
-                                                (PriorityBlockingQueue<Runnable>)queue,
+                                                queue,
                                                 new BuilderThreadFactory() );
+                                                
+        // Start the threads now so that every execute() goes through
+        // the lane queue.  Otherwise the first few would be handed right
+        // to new threads without being charged to their lanes.
+        executor.prestartAllCoreThreads();
+        
+        // A single thread is plenty for freeing old packets and it keeps
+        // that work from competing with the lanes.
+        this.releaseExecutor = new ThreadPoolExecutor( 1, 1, 0L, TimeUnit.MILLISECONDS,
+                                                       new LinkedBlockingQueue<Runnable>(),
+                                                       new BuilderThreadFactory() );                                                        
     }
  
     public int getPending() {
         return refMap.size();
     }
  
+    /**
+     *  Creates a new lane with the specified weight and maximum thread
+     *  count.  When more than one lane has work queued, worker threads are
+     *  handed out in proportion to the lane weights.  When the other lanes are
+     *  idle, a lane can use up to maxThreads threads.
+     */
+    public BuilderLane createLane( String name, float weight, int maxThreads ) {
+        if( queue.getLane(name) != null ) {
+            throw new IllegalArgumentException("Lane already exists:" + name);
+        }
+        BuilderLane result = new BuilderLane(name, weight, maxThreads);
+        queue.addLane(result);
+        return result;
+    }
+ 
+    /**
+     *  Returns the lane with the specified name or null if there is
+     *  no such lane.
+     */   
+    public BuilderLane getLane( String name ) {
+        return queue.getLane(name);
+    }
+ 
+    /**
+     *  Returns the lane used for references that are built without
+     *  specifying a lane.  This lane can use all of the worker threads.
+     */
+    public BuilderLane getDefaultLane() {
+        return defaultLane;
+    }
+ 
+    /**
+     *  Returns the number of references waiting for a thread in the
+     *  specified lane.
+     */
+    public int getQueuedCount( BuilderLane lane ) {
+        return queue.getQueuedCount(lane);
+    }
+ 
+    /**
+     *  Returns the number of references currently being built in
+     *  the specified lane.
+     */   
+    public int getRunningCount( BuilderLane lane ) {
+        return queue.getRunningCount(lane);
+    }
+ 
     public boolean isShutdown() {
         return executor.isShutdown();
     }
@@ -108,12 +179,26 @@ public class Builder {
      *  to be applied.
      *  References are managed indefinitely until Builder.release() is
      *  called.
+     *  The reference is built in the default lane.
      */   
     public void build( BuilderReference ref ) {
+        build(ref, defaultLane);
+    }
+    
+    /**
+     *  Queues the specified reference up for building in the specified
+     *  lane.  The lane is fixed the first time a reference is passed
+     *  to build() and will be used for all of its rebuilds until it is 
+     *  released.  If lane is null then the default lane is used. 
+     */
+    public void build( BuilderReference ref, BuilderLane lane ) {
  
         if( log.isTraceEnabled() ) {
-            log.trace("build(" + ref + ")" );
+            log.trace("build(" + ref + ", " + lane + ")" );
         } 
+        if( lane == null ) {
+            lane = defaultLane;
+        }
         // See if we already have a reference for this
         PrioritizedRef pr = refMap.get(ref);
         if( pr == null ) {
@@ -123,7 +208,7 @@ public class Builder {
             // the same thread.
         
             // Need to create the new reference and track it 
-            pr = new PrioritizedRef( ref );
+            pr = new PrioritizedRef( ref, lane );
             
             // Always put it in the reference map before enqueueing
             // otherwise there could be a race where the thread processes
@@ -193,6 +278,45 @@ public class Builder {
         pr.markForRelease();
     }
  
+    /**
+     *  Queues the specified packet to have its release() method called
+     *  on a background thread.  References call this from apply() or
+     *  release() with the packets that are no longer in use so that 
+     *  freeing their resources doesn't cost the apply thread anything.
+     *  If the builder has been shutdown then the packet is released 
+     *  immediately on the calling thread.
+     */
+    public void releaseLater( final ApplyPacket packet ) {
+        if( packet == null ) {
+            return;
+        }
+        if( !releaseExecutor.isShutdown() ) {
+            try {
+                releaseExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            releasePacket(packet);
+                        }
+                    });
+                return;
+            } catch( RejectedExecutionException e ) {
+                // Shutdown raced us so release it here
+            }
+        }
+        releasePacket(packet);
+    }
+ 
+    protected void releasePacket( ApplyPacket packet ) {
+        if( log.isTraceEnabled() ) {
+            log.trace("releasing packet:" + packet);
+        }
+        try {
+            packet.release();
+        } catch( Exception e ) {
+            handleError(e);
+        }
+    }
+ 
     /**
      *  Returns true if the specified reference is being managed
      *  by this builder.
@@ -222,9 +346,10 @@ public class Builder {
         }
 
         // Shuffle all of the pending items from pending to paused.
-        PrioritizedRef ref;
-        while( (ref = (PrioritizedRef)queue.poll()) != null ) {
-            pausedItems.add(ref);
+        List<Runnable> pending = new ArrayList<Runnable>();
+        queue.drainTo(pending);
+        for( Runnable r : pending ) {
+            pausedItems.add((PrioritizedRef)r);
         } 
     }
  
@@ -308,6 +433,10 @@ public class Builder {
      */   
     public void shutdown() {
         executor.shutdownNow();
+        
+        // Let any queued releases finish but don't accept new ones.
+        // Those will be released directly by releaseLater().
+        releaseExecutor.shutdown();
 
         if( log.isTraceEnabled() ) {
             log.trace("Builder unreleased references:" + refMap.keySet());
@@ -326,6 +455,7 @@ public class Builder {
  
         private long sequence = instanceCount.getAndIncrement();
         private BuilderReference ref;
+        private BuilderLane lane;
         private AtomicReference<State> state = new AtomicReference<State>(State.Idle);        
         private int priority;
         
@@ -335,16 +465,22 @@ public class Builder {
 
         private ReentrantLock stateLock = new ReentrantLock(); 
 
-        public PrioritizedRef( BuilderReference ref ) {
+        public PrioritizedRef( BuilderReference ref, BuilderLane lane ) {
             this.ref = ref;
+            this.lane = lane;
             resetPriority();
         }
 
-        public PrioritizedRef( State state, BuilderReference ref ) {
+        public PrioritizedRef( State state, BuilderReference ref, BuilderLane lane ) {
             this.state.set(state);
             this.ref = ref;
+            this.lane = lane;
             resetPriority();
         }
+ 
+        public BuilderLane getLane() {
+            return lane;
+        }
 
         public void markForBuild() {
             if( state.get() == State.Release ) {
@@ -633,13 +769,18 @@ public class Builder {
         @Override
         public void run() {
  
-            markProcessing();
             try {
-                ref.build();
-            } catch( Exception e ) {
-                handleError(e);                
-            } finally {            
-                markDone();                      
+                markProcessing();
+                try {
+                    ref.build();
+                } catch( Exception e ) {
+                    handleError(e);                
+                } finally {            
+                    markDone();                      
+                }
+            } finally {
+                // Give the lane its thread back
+                queue.taskDone(lane);
             } 
         }
     }
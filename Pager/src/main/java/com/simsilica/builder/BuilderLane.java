@@ -0,0 +1,119 @@
+/*
+ * $Id$
+ * 
+ * Copyright (c) 2014, Simsilica, LLC
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright 
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its 
+ *    contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) 
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED 
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simsilica.builder;
+
+import java.util.PriorityQueue;
+
+
+/**
+ *  A named queue within a Builder that gets a weighted share of
+ *  the Builder's worker threads.  All lanes share the same thread
+ *  pool but the Builder will hand out threads to lanes in proportion
+ *  to their weights, never giving a lane more than its maximum
+ *  number of threads.  A lane with nothing queued does not hold
+ *  on to its share so other lanes are free to use the idle capacity.
+ *
+ *  <p>Lanes are created with Builder.createLane() and references are
+ *  assigned to a lane the first time they are passed to
+ *  Builder.build().</p>
+ *
+ *  @author    Paul Speed
+ */
+public class BuilderLane {
+
+    private String name;
+    private float weight;
+    private int maxThreads;
+ 
+    // Both are only accessed under the LaneQueue's lock
+    final PriorityQueue<Runnable> pending = new PriorityQueue<Runnable>();
+    int running;
+    
+    BuilderLane( String name, float weight, int maxThreads ) {
+        if( weight <= 0 ) {
+            throw new IllegalArgumentException("Lane weight must be greater than 0:" + weight);
+        }
+        if( maxThreads <= 0 ) {
+            throw new IllegalArgumentException("Lane max threads must be greater than 0:" + maxThreads);
+        }
+        this.name = name;
+        this.weight = weight;
+        this.maxThreads = maxThreads;
+    }
+ 
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     *  Returns the relative share of the worker threads that this
+     *  lane gets when other lanes also have work pending.
+     */
+    public float getWeight() {
+        return weight;
+    }
+    
+    /**
+     *  Returns the maximum number of worker threads that this lane
+     *  will ever use at one time, even if the other lanes are idle.
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+ 
+    /**
+     *  Returns true if the lane could take another worker thread
+     *  right now.  Must be called under the LaneQueue's lock.
+     */
+    boolean isReady() {
+        return running < maxThreads && !pending.isEmpty();
+    }
+ 
+    /**
+     *  Returns the load the lane would have if it were given another
+     *  thread.  Lower values are more deserving.  Must be called under
+     *  the LaneQueue's lock.
+     */
+    float getNextLoad() {
+        return (running + 1) / weight;
+    }
+    
+    @Override
+    public String toString() {
+        return "BuilderLane[" + name + ", weight:" + weight + ", maxThreads:" + maxThreads + "]";
+    } 
+}
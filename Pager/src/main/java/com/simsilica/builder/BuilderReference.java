@@ -38,6 +38,15 @@ package com.simsilica.builder;
 
 
 /**
+ *  Something that can be built on a Builder thread and then
+ *  applied on the thread calling Builder.applyUpdates().
+ *
+ *  <p>apply() is run on the application's frame so references
+ *  that do a lot of work there can cause hitches.  The preferred
+ *  approach is for build() to prepare everything up front as an 
+ *  ApplyPacket so that apply() only has to swap the new packet in.
+ *  The old packet is then passed to Builder.releaseLater() to be
+ *  freed on a background thread.</p>
  *
  *  @author    Paul Speed
  */
@@ -110,6 +110,11 @@ public class BuilderState extends BaseAppState {
             log.trace("Builder cleanup: applied " + updates + " updates.");   
         }
         log.trace("Builder cleanup: applied " + updates + " updates.");   
+ 
+        // Free anything still waiting to be reclaimed.  The buffer
+        // pool is shared by everything in the process so it's up to
+        // the application to shut it down once its zones are released.
+        BufferReclaimer.getInstance().flush();
         
         // Can't restart it once shutdown so we might as well
         // poison the well
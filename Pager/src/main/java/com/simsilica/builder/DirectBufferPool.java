@@ -0,0 +1,500 @@
+/*
+ * $Id$
+ * 
+ * Copyright (c) 2014, Simsilica, LLC
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright 
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its 
+ *    contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) 
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED 
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simsilica.builder;
+
+import com.jme3.math.Vector3f;
+import com.jme3.util.BufferUtils;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ *  A thread-safe pool of direct buffers that mesh generators can
+ *  draw from instead of allocating fresh direct memory for every build.
+ *  Buffers are pooled by power-of-two size classes.  The buffers
+ *  handed out are views sized exactly to the request so they can be
+ *  used anywhere a BufferUtils buffer would be used.
+ *
+ *  <p>Buffers go back to the pool with release().  The BufferReclaimer
+ *  does this automatically for any pooled buffer it is asked to 
+ *  reclaim so zones that already hand their meshes to the reclaimer 
+ *  don't need to do anything special.  Once the free buffers reach 
+ *  the high-water mark, any further releases are destroyed instead
+ *  of pooled.  Releasing a buffer more than once is harmless.</p>
+ *
+ *  <p>The pool only holds its buffers weakly.  A buffer that is 
+ *  dropped without being released is freed by the garbage collector 
+ *  like any other direct buffer.  It just doesn't get reused.</p>
+ *
+ *  <p>shutdown() reports any buffers that were never released.  With
+ *  setTrackAllocations(true) it will also log where they were 
+ *  allocated.</p>
+ *
+ *  @author    Paul Speed
+ */
+public class DirectBufferPool {
+
+    static Logger log = LoggerFactory.getLogger(DirectBufferPool.class);
+
+    private static DirectBufferPool instance;
+    
+    private static final int MIN_CLASS_SHIFT = 10; // 1k
+    private static final int MAX_CLASS_SHIFT = 24; // 16 meg
+
+    private final SizeClass[] classes = new SizeClass[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+    
+    // Maps the buffers we've handed out to their backing ByteBuffer.
+    // Released buffers stay in the map until they are collected so that
+    // a second release() can still tell that they belong to us.  The keys
+    // are weak so that we don't pin meshes that callers drop.  
+    // Guarded by itself.
+    private final Map<ViewKey, Allocation> views = new HashMap<ViewKey, Allocation>();
+    private final ReferenceQueue<Buffer> collected = new ReferenceQueue<Buffer>();
+    private int outstandingCount; // guarded by views
+    
+    private volatile long maxPooledBytes = 64 * 1024 * 1024;
+    private volatile boolean trackAllocations = false; 
+    
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicLong outstandingBytes = new AtomicLong();
+    private final AtomicLong peakOutstandingBytes = new AtomicLong();
+    private final AtomicInteger allocationCount = new AtomicInteger();
+    private final AtomicInteger reuseCount = new AtomicInteger();
+    private final AtomicInteger droppedCount = new AtomicInteger();
+    
+    public DirectBufferPool() {
+        for( int i = 0; i < classes.length; i++ ) {
+            classes[i] = new SizeClass(1 << (MIN_CLASS_SHIFT + i));
+        }
+    }
+ 
+    /**
+     *  Returns the shared pool used by the mesh generators in this
+     *  library.
+     */   
+    public static synchronized DirectBufferPool getInstance() {
+        if( instance == null ) {
+            instance = new DirectBufferPool();
+        }
+        return instance;
+    }
+ 
+    /**
+     *  Sets the maximum number of bytes that will be kept in the 
+     *  free lists.  Buffers released beyond this are destroyed.
+     *  Defaults to 64 meg.
+     */   
+    public void setMaxPooledBytes( long bytes ) {
+        this.maxPooledBytes = bytes;
+    }
+    
+    public long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+ 
+    /**
+     *  When true, the pool keeps the stack trace of every allocation
+     *  so that leaks reported on shutdown() can be tracked down.  This
+     *  is expensive and defaults to false.
+     */   
+    public void setTrackAllocations( boolean b ) {
+        this.trackAllocations = b;
+    }
+    
+    public boolean getTrackAllocations() {
+        return trackAllocations;
+    }
+    
+    public ByteBuffer getByteBuffer( int size ) {
+        ByteBuffer bb = allocateBacking(size);
+        return (ByteBuffer)register(bb.slice().order(ByteOrder.nativeOrder()), bb);
+    }
+    
+    public FloatBuffer getFloatBuffer( int size ) {
+        ByteBuffer bb = allocateBacking(size * 4);
+        return (FloatBuffer)register(bb.asFloatBuffer(), bb);
+    }
+    
+    public FloatBuffer getVector3Buffer( Vector3f... data ) {
+        FloatBuffer result = getFloatBuffer(data.length * 3);
+        for( Vector3f v : data ) {
+            if( v != null ) {
+                result.put(v.x).put(v.y).put(v.z);
+            } else {
+                result.put(0).put(0).put(0);
+            }
+        }
+        result.flip();
+        return result;
+    }
+    
+    public FloatBuffer getFloatBuffer( float... data ) {
+        FloatBuffer result = getFloatBuffer(data.length);
+        result.put(data);
+        result.flip();
+        return result;
+    }
+    
+    public IntBuffer getIntBuffer( int size ) {
+        ByteBuffer bb = allocateBacking(size * 4);
+        return (IntBuffer)register(bb.asIntBuffer(), bb);
+    }
+    
+    public IntBuffer getIntBuffer( int... data ) {
+        IntBuffer result = getIntBuffer(data.length);
+        result.put(data);
+        result.flip();
+        return result;
+    }
+    
+    public ShortBuffer getShortBuffer( int size ) {
+        ByteBuffer bb = allocateBacking(size * 2);
+        return (ShortBuffer)register(bb.asShortBuffer(), bb);
+    }
+    
+    public ShortBuffer getShortBuffer( short... data ) {
+        ShortBuffer result = getShortBuffer(data.length);
+        result.put(data);
+        result.flip();
+        return result;
+    }
+ 
+    /**
+     *  Returns true if the specified buffer was handed out by this
+     *  pool and has not been released yet.
+     */   
+    public boolean isPooled( Buffer buffer ) {
+        if( buffer == null ) {
+            return false;
+        }
+        synchronized( views ) {
+            Allocation alloc = views.get(new ViewKey(buffer, null));
+            return alloc != null && !alloc.released;
+        }
+    } 
+ 
+    /**
+     *  Returns true if the specified buffer was handed out by this
+     *  pool, whether it has been released or not.  Such buffers share
+     *  their backing memory with the pool and must never be passed to
+     *  BufferUtils.destroyDirectBuffer().
+     */   
+    public boolean owns( Buffer buffer ) {
+        if( buffer == null ) {
+            return false;
+        }
+        synchronized( views ) {
+            return views.containsKey(new ViewKey(buffer, null));
+        }
+    } 
+ 
+    /**
+     *  Returns the specified buffer to the pool.  Returns false if
+     *  the buffer did not come from this pool, in which case it is
+     *  left alone.  Returns true for any buffer that came from this
+     *  pool, even one that was already released, in which case nothing 
+     *  else happens.  The caller must not use the buffer after this.
+     *  Pooled buffers must never be passed to 
+     *  BufferUtils.destroyDirectBuffer() as that would free the shared
+     *  backing memory out from under the pool.
+     */   
+    public boolean release( Buffer buffer ) {
+        if( buffer == null ) {
+            return false;
+        }
+        Allocation alloc;
+        synchronized( views ) {
+            expunge();
+            alloc = views.get(new ViewKey(buffer, null));
+            if( alloc == null ) {
+                return false;
+            }
+            if( alloc.released ) {
+                // Its backing is already in the free lists and may
+                // even belong to some other buffer by now.
+                if( log.isDebugEnabled() ) {
+                    log.debug("Buffer released more than once:" + buffer);
+                }
+                return true;
+            }
+            alloc.released = true;
+            outstandingCount--;
+        }
+        outstandingBytes.addAndGet(-alloc.backing.capacity());
+        
+        SizeClass sc = alloc.sizeClass;
+        if( sc == null || pooledBytes.get() + sc.size > maxPooledBytes ) {
+            // Too big to pool or we're over the high-water mark
+            BufferUtils.destroyDirectBuffer(alloc.backing);
+            return true;
+        }
+        pooledBytes.addAndGet(sc.size);
+        sc.free.add(alloc.backing);
+        return true;
+    }
+ 
+    /**
+     *  Bytes currently sitting in the free lists.
+     */   
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+ 
+    /**
+     *  Bytes handed out and not released yet.
+     */   
+    public long getOutstandingBytes() {
+        return outstandingBytes.get();
+    }
+    
+    public long getPeakOutstandingBytes() {
+        return peakOutstandingBytes.get();
+    }
+    
+    public int getOutstandingCount() {
+        synchronized( views ) {
+            expunge();
+            return outstandingCount;
+        }
+    }
+ 
+    /**
+     *  Returns the number of buffers that were garbage collected
+     *  without ever being released.
+     */   
+    public int getDroppedCount() {
+        return droppedCount.get();
+    }
+ 
+    /**
+     *  Returns the number of new direct buffers that had to be 
+     *  allocated.
+     */   
+    public int getAllocationCount() {
+        return allocationCount.get();
+    }
+ 
+    /**
+     *  Returns the number of requests that were satisfied from the
+     *  free lists.
+     */   
+    public int getReuseCount() {
+        return reuseCount.get();
+    }
+ 
+    /**
+     *  Frees all pooled buffers and logs any that are still 
+     *  outstanding.  Returns the number of leaked buffers.  The 
+     *  pool can continue to be used afterwards.  The pool is shared
+     *  by the whole process so this should only be called once every
+     *  user of it is done, ie: after the pagers have released their
+     *  zones, or live meshes will be reported as leaks.
+     */   
+    public int shutdown() {
+        for( SizeClass sc : classes ) {
+            ByteBuffer bb;
+            while( (bb = sc.free.poll()) != null ) {
+                pooledBytes.addAndGet(-sc.size);
+                BufferUtils.destroyDirectBuffer(bb);
+            }
+        }
+        
+        int leaks;
+        synchronized( views ) {
+            expunge();
+            leaks = outstandingCount;
+            if( leaks > 0 ) {
+                log.warn("Direct buffer pool has " + leaks + " unreleased buffers, bytes:" 
+                            + outstandingBytes.get());
+                for( Allocation alloc : views.values() ) {
+                    if( !alloc.released && alloc.where != null ) {
+                        log.warn("Unreleased buffer of " + alloc.backing.capacity() + " bytes", alloc.where);
+                    }
+                }
+            }
+        }
+        if( log.isInfoEnabled() ) {
+            log.info("Direct buffer pool allocations:" + allocationCount + " reuses:" + reuseCount
+                        + " peak bytes:" + peakOutstandingBytes + " dropped:" + droppedCount);
+        }
+        return leaks;
+    }
+ 
+    /**
+     *  Returns a cleared buffer with capacity >= bytes and a limit
+     *  of exactly bytes.  Views made from it will be sized exactly.
+     */   
+    protected ByteBuffer allocateBacking( int bytes ) {
+        SizeClass sc = sizeClassFor(bytes);
+        ByteBuffer bb = null;
+        if( sc != null ) {
+            bb = sc.free.poll();
+            if( bb != null ) {
+                pooledBytes.addAndGet(-sc.size);
+                reuseCount.incrementAndGet();
+            } else {
+                bb = ByteBuffer.allocateDirect(sc.size).order(ByteOrder.nativeOrder());
+                allocationCount.incrementAndGet();
+            }
+        } else {
+            // Too big to pool
+            bb = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+            allocationCount.incrementAndGet();
+        }
+        bb.clear();
+        bb.limit(bytes);
+        return bb;
+    }
+    
+    protected Buffer register( Buffer buffer, ByteBuffer backing ) {
+        Allocation alloc = new Allocation(backing, sizeClassFor(backing.capacity()));
+        if( trackAllocations ) {
+            alloc.where = new Throwable("Allocated here");
+        }
+        synchronized( views ) {
+            expunge();
+            views.put(new ViewKey(buffer, collected), alloc);
+            outstandingCount++;
+        }
+        long total = outstandingBytes.addAndGet(backing.capacity());
+        long peak;
+        while( total > (peak = peakOutstandingBytes.get()) ) {
+            if( peakOutstandingBytes.compareAndSet(peak, total) ) {
+                break;
+            }
+        }
+        return buffer;
+    }
+    
+    /**
+     *  Removes the buffers that have been garbage collected.  Any
+     *  that were never released are written off.  Their backing
+     *  can't be reused because duplicate() and slice() views of a
+     *  buffer share its backing and may still be in use.  The GC will
+     *  free it once those are gone.  Must be called with the views
+     *  lock held.
+     */
+    private void expunge() {
+        Reference<? extends Buffer> ref;
+        while( (ref = collected.poll()) != null ) {
+            Allocation alloc = views.remove(ref);
+            if( alloc != null && !alloc.released ) {
+                outstandingCount--;
+                outstandingBytes.addAndGet(-alloc.backing.capacity());
+                droppedCount.incrementAndGet();
+            }
+        }
+    }
+    
+    protected SizeClass sizeClassFor( int bytes ) {
+        int shift = MIN_CLASS_SHIFT;
+        while( shift <= MAX_CLASS_SHIFT && (1 << shift) < bytes ) {
+            shift++;
+        }
+        if( shift > MAX_CLASS_SHIFT ) {
+            return null;
+        }
+        return classes[shift - MIN_CLASS_SHIFT];
+    } 
+ 
+    protected static class SizeClass {
+        final int size;
+        final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+        
+        public SizeClass( int size ) {
+            this.size = size;
+        }
+    }
+    
+    private static class Allocation {
+        final ByteBuffer backing;
+        final SizeClass sizeClass;
+        Throwable where;
+        boolean released; // guarded by views
+        
+        public Allocation( ByteBuffer backing, SizeClass sizeClass ) {
+            this.backing = backing;
+            this.sizeClass = sizeClass;
+        }
+    }
+ 
+    /**
+     *  Weak map key for a buffer we've handed out.  Buffer.equals()
+     *  compares contents so keys compare by identity instead.  A key 
+     *  that has been cleared is only equal to itself so that it can 
+     *  still be removed.
+     */   
+    private static class ViewKey extends WeakReference<Buffer> {
+        private final int hash;
+        
+        public ViewKey( Buffer buffer, ReferenceQueue<Buffer> queue ) {
+            super(buffer, queue);
+            this.hash = System.identityHashCode(buffer);
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public boolean equals( Object o ) {
+            if( o == this ) {
+                return true;
+            }
+            if( !(o instanceof ViewKey) ) {
+                return false;
+            }
+            Buffer buffer = get();
+            return buffer != null && buffer == ((ViewKey)o).get();
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * $Id$
+ * 
+ * Copyright (c) 2014, Simsilica, LLC
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright 
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its 
+ *    contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) 
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED 
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simsilica.builder;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ *  The work queue that the Builder's thread pool pulls from.  It
+ *  keeps a separate priority queue per BuilderLane and hands out
+ *  the best item from the lane that is furthest under its weighted
+ *  share of the worker threads.  Lanes that have reached their
+ *  maximum thread count are skipped until one of their running
+ *  items completes.
+ *
+ *  <p>Only take() and poll() observe the lane limits.  drainTo()
+ *  and remove() see every pending item since they are used for
+ *  pausing, canceling, and shutdown.</p> 
+ *
+ *  @author    Paul Speed
+ */
+class LaneQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = lock.newCondition();
+    private final List<BuilderLane> lanes = new ArrayList<BuilderLane>();
+    private int size;
+    
+    public LaneQueue() {
+    }
+ 
+    public void addLane( BuilderLane lane ) {
+        lock.lock();
+        try {
+            lanes.add(lane);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public BuilderLane getLane( String name ) {
+        lock.lock();
+        try {
+            for( BuilderLane lane : lanes ) {
+                if( lane.getName().equals(name) ) {
+                    return lane;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+ 
+    public int getQueuedCount( BuilderLane lane ) {
+        lock.lock();
+        try {
+            return lane.pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getRunningCount( BuilderLane lane ) {
+        lock.lock();
+        try {
+            return lane.running;
+        } finally {
+            lock.unlock();
+        }
+    }
+ 
+    /**
+     *  Called by the worker thread when an item handed out by take()
+     *  or poll() has finished running.  This frees up the lane's thread
+     *  so that it may be given more work.
+     */
+    public void taskDone( BuilderLane lane ) {
+        lock.lock();
+        try {
+            lane.running--;
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+ 
+    protected BuilderLane laneFor( Object o ) {
+        return ((Builder.PrioritizedRef)o).getLane();
+    }
+ 
+    /**
+     *  Returns the lane that should get the next thread or null
+     *  if no lane is ready.  Must be called under lock.
+     */
+    private BuilderLane nextLane() {
+        BuilderLane best = null;
+        float bestLoad = 0;
+        for( BuilderLane lane : lanes ) {
+            if( !lane.isReady() ) {
+                continue;
+            }
+            float load = lane.getNextLoad();
+            if( best == null || load < bestLoad ) {
+                best = lane;
+                bestLoad = load;
+            } else if( load == bestLoad ) {
+                // Let the better priority item break the tie
+                Builder.PrioritizedRef a = (Builder.PrioritizedRef)lane.pending.peek(); 
+                Builder.PrioritizedRef b = (Builder.PrioritizedRef)best.pending.peek();
+                if( a.compareTo(b) < 0 ) {
+                    best = lane;
+                }
+            }
+        }
+        return best;
+    }
+ 
+    /**
+     *  Removes the next item and charges it against its lane.  Must
+     *  be called under lock.
+     */
+    private Runnable dequeue() {
+        BuilderLane lane = nextLane();
+        if( lane == null ) {
+            return null;
+        }
+        Runnable result = lane.pending.poll();
+        lane.running++;
+        size--;
+        if( size > 0 ) {
+            // There may be other ready lanes and other waiting threads
+            ready.signal();
+        }
+        return result;
+    }  
+
+    @Override
+    public boolean offer( Runnable r ) {
+        BuilderLane lane = laneFor(r);
+        lock.lock();
+        try {
+            lane.pending.add(r);
+            size++;
+            ready.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put( Runnable r ) {
+        offer(r);
+    }
+
+    @Override
+    public boolean offer( Runnable r, long timeout, TimeUnit unit ) {
+        return offer(r);
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Runnable result;
+            while( (result = dequeue()) == null ) {
+                ready.await();
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll( long timeout, TimeUnit unit ) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Runnable result;
+            while( (result = dequeue()) == null ) {
+                if( nanos <= 0 ) {
+                    return null;
+                }
+                nanos = ready.awaitNanos(nanos);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            BuilderLane lane = nextLane();
+            return lane == null ? null : lane.pending.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove( Object o ) {
+        if( !(o instanceof Builder.PrioritizedRef) ) {
+            return false;
+        }
+        BuilderLane lane = laneFor(o);
+        lock.lock();
+        try {
+            if( lane.pending.remove(o) ) {
+                size--;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo( Collection<? super Runnable> c ) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo( Collection<? super Runnable> c, int max ) {
+        lock.lock();
+        try {
+            int count = 0;
+            for( BuilderLane lane : lanes ) {
+                Runnable r;
+                while( count < max && (r = lane.pending.poll()) != null ) {
+                    c.add(r);
+                    count++;
+                }
+            }
+            size -= count;
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *  Returns an iterator over a snapshot of the pending items.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> snapshot = new ArrayList<Runnable>(size);
+            for( BuilderLane lane : lanes ) {
+                snapshot.addAll(lane.pending);
+            }
+            return snapshot.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -38,6 +38,7 @@ package com.simsilica.pager;
 
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Node;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -52,7 +53,8 @@ public abstract class AbstractZone implements Zone {
     private Node zoneRoot;
     private int priority;
     private Grid grid;
-    private Zone parentZone;
+    private Zone[] parentZones = new Zone[0];
+    private ConcurrentHashMap<ZoneDataKey<?>, Object> zoneData = new ConcurrentHashMap<ZoneDataKey<?>, Object>();
     
     protected AbstractZone( Grid grid, int xCell, int yCell, int zCell ) {
         this.grid = grid;
@@ -119,13 +121,51 @@ public abstract class AbstractZone implements Zone {
         return priority;
     }
 
-    @Override
     public void setParentZone( Zone parentZone ) {
-        this.parentZone = parentZone;
+        if( parentZone == null ) {
+            setParentZones();
+        } else {
+            setParentZones(parentZone);
+        }
     }
 
+    /**
+     *  Returns the first parent zone or null if this zone
+     *  has no parents. 
+     */
     public Zone getParentZone() {
-        return parentZone;
+        return parentZones.length == 0 ? null : parentZones[0];
+    }
+    
+    @Override
+    public void setParentZones( Zone... parentZones ) {
+        this.parentZones = parentZones;
+    }
+ 
+    /**
+     *  Returns all of the parent zones that overlap this zone.
+     *  Returns an empty array if there are no parents.
+     */   
+    public Zone[] getParentZones() {
+        return parentZones;
+    }
+ 
+    @Override
+    public <T> T getZoneData( ZoneDataKey<T> key ) {
+        return key.cast(zoneData.get(key));
+    }
+ 
+    /**
+     *  Publishes data for other zones to read or removes it if the
+     *  value is null.  Generally called from apply() so that the
+     *  published data matches what is attached. 
+     */   
+    protected <T> void setZoneData( ZoneDataKey<T> key, T value ) {
+        if( value == null ) {
+            zoneData.remove(key);
+        } else {
+            zoneData.put(key, value);
+        }
     }
  
     /**
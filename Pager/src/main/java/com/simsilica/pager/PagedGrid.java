@@ -37,11 +37,24 @@
 package com.simsilica.pager;
 
 import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
+import com.jme3.scene.SceneGraphVisitor;
+import com.jme3.scene.Spatial;
 import com.jme3.scene.Spatial.CullHint;
+import com.jme3.scene.VertexBuffer;
 import com.jme3.util.SafeArrayList;
 import com.simsilica.builder.Builder;
+import com.simsilica.builder.BuilderLane;
 import com.simsilica.builder.BuilderReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
@@ -53,7 +66,29 @@ import org.slf4j.LoggerFactory;
  *  are created and released as needed to keep a certain radius
  *  around the central location.  Parent/child zone relationships
  *  are managed such that child zones are not queued for building
- *  until the parent zone is available.
+ *  until all of the parent zones that they overlap are available.
+ *  Child grid cells do not need to line up with the parent grid's 
+ *  cells.
+ *
+ *  <p>To cut down on pop-in, a root grid can optionally prefetch
+ *  the row of zones just outside the window in the direction the
+ *  center is moving.  These are built at low priority and kept 
+ *  hidden until the window moves over them.  They are released 
+ *  if the heading changes.</p>
+ *
+ *  <p>Any grid can also retain built zones that have left the window
+ *  so that walking back and forth across a cell edge doesn't rebuild
+ *  the same cells over and over.  Retained zones are hidden and 
+ *  evicted least-recently-used first once the count or memory budget
+ *  is exceeded.</p>
+ *
+ *  <p>Cells are stored in a wrap-around array indexed by world cell
+ *  modulo the window size.  When the center moves, only the rows
+ *  leaving and entering the window are touched.  Zone priorities are
+ *  recalculated lazily when the builder asks for them and can be
+ *  adjusted by a PriorityPolicy.  The window can be square, circular, 
+ *  or diamond shaped and can optionally page only the layers within
+ *  a y radius of the center.</p>
  *
  *  @author    Paul Speed
  */
@@ -61,28 +96,85 @@ public class PagedGrid {
 
     static Logger log = LoggerFactory.getLogger(PagedGrid.class);
     
+    /**
+     *  The shape of the window of cells that a PagedGrid keeps
+     *  around its center.
+     */
+    public enum WindowShape { Square, Circle, Diamond };
+ 
     private Builder builder;
+    private BuilderLane lane;
     private Node gridRoot;
     private ZoneFactory zoneFactory;    
-    private float xCornerWorld;
-    private float zCornerWorld;
     private int xCenterCell = Integer.MIN_VALUE;
     private int zCenterCell = Integer.MIN_VALUE;
+    
+    // Zone roots are positioned relative to an anchor cell so that
+    // moving the center only needs to move the grid root.  The anchor
+    // is only moved when the center drifts a full window away from it.
+    private int xAnchorCell;
+    private int zAnchorCell;
+    private float xAnchorWorld;
+    private float zAnchorWorld;
+    
+    // Incremented whenever zone priorities become stale
+    private volatile int centerVersion;
     private Grid grid;
     private int radius;
     private int priorityBias = 1;
+    private PriorityPolicy priorityPolicy;
  
     private boolean trackViewLocation;
+    private boolean trackRelativeLocation = true;
  
     private ZoneProxy[][][] cells;
     private int size;
     private int layers;
+    private WindowShape windowShape = WindowShape.Square;
+    private int[] halfHeights;
+    
+    // The range of layers currently paged.  All of them unless 
+    // there is a y radius.
+    private int yRadius = -1;
+    private float yCenterWorld;
+    private int yMinLayer;
+    private int yMaxLayer;
+    
+    // Set to true to skip building children of zones that came up empty
+    private boolean skipEmptyParents = false;
+    private long skippedCount;
 
     private PagedGrid parent;
     private SafeArrayList<PagedGrid> children;
+ 
+    // Zones that are being built ahead of the center's heading
+    private boolean prefetch = false;
+    private float minPrefetchSpeed = 1;
+    private Map<CellId, ZoneProxy> prefetched = new HashMap<CellId, ZoneProxy>();
+    
+    // Velocity tracking for the prefetch
+    private Vector3f velocity = new Vector3f();
+    private float lastX;
+    private float lastZ;
+    private long lastTime = -1;
+    
+    // Built zones that recently left the window, oldest first
+    private int keepAliveSize = 0;
+    private long keepAliveBudget = 0;
+    private long keepAliveBytes = 0;
+    private LinkedHashMap<CellId, ZoneProxy> keepAlive = new LinkedHashMap<CellId, ZoneProxy>(16, 0.75f, true);
+    
+    // Stats for new cells entering the window
+    private long keepAliveHits;
+    private long prefetchHits;
+    private long misses;
     
     // For double checking that we aren't leaking releases.
     private ConcurrentHashMap<Zone, ZoneProxy> releaseWatchDog = new ConcurrentHashMap<Zone, ZoneProxy>(); 
+
+    // The zones that have been applied and not yet released, by cell.
+    // Updated on the render thread but read from zone build threads.
+    private ConcurrentHashMap<CellId, Zone> builtZones = new ConcurrentHashMap<CellId, Zone>();
  
     /**
      *  Creates a root level paging system that will use the specified
@@ -118,6 +210,9 @@ public class PagedGrid {
         this.size = 2 * radius + 1;
         this.cells = new ZoneProxy[size][layers][size];
         this.layers = layers;
+        this.halfHeights = new int[size];
+        this.yMaxLayer = layers - 1;
+        updateHalfHeights();
         
         if( this.parent != null ) {
             parent.addChild(this);
@@ -148,7 +243,18 @@ public class PagedGrid {
                     }
                 }
             }
-        }            
+        }
+        
+        // And any zones that are outside of the window
+        for( ZoneProxy proxy : prefetched.values() ) {
+            proxy.markForRelease();
+        }
+        prefetched.clear();
+        for( ZoneProxy proxy : keepAlive.values() ) {
+            proxy.markForRelease();
+        }
+        keepAlive.clear();
+        keepAliveBytes = 0;
  
         // Set it to build after everything else... but note that
         // a shutdown is probably coming soon so if there are still
@@ -193,12 +299,309 @@ public class PagedGrid {
  
     public void setPriorityBias( int bias ) {
         this.priorityBias = bias;
+        centerVersion++;
     }
     
     public int getPriorityBias() {
         return priorityBias;
     }
     
+    public int getRadius() {
+        return radius;
+    }
+ 
+    /**
+     *  Returns the number of y layers in the grid.
+     */   
+    public int getLayers() {
+        return layers;
+    }
+ 
+    /**
+     *  Sets the shape of the window of cells that are kept around the
+     *  center.  A Square window pages every cell within radius on both
+     *  axes.  A Circle window skips the corners that are farther than
+     *  radius from the center, which is about 20% fewer cells at most
+     *  radii.  A Diamond window only keeps cells within radius steps of
+     *  the center, about half of the Square.  Child grids should use 
+     *  a window that fits inside the parent's or some of their zones
+     *  will never be built.  This must be set before the grid is first
+     *  centered.  Defaults to Square.
+     */   
+    public void setWindowShape( WindowShape shape ) {
+        if( xCenterCell != Integer.MIN_VALUE ) {
+            throw new IllegalStateException("Window shape must be set before the grid is centered.");
+        }
+        this.windowShape = shape;
+        updateHalfHeights();
+        
+        if( log.isInfoEnabled() ) {
+            int square = size * size * layers;
+            int count = getCellCount(); 
+            log.info(this + " " + shape + " window, radius:" + radius + " cells:" + count 
+                        + " of " + square + " (" + ((square - count) * 100 / square) + "% fewer)");
+        }
+    }
+    
+    public WindowShape getWindowShape() {
+        return windowShape;
+    }
+ 
+    /**
+     *  Returns the number of cells, and therefore zones, in this
+     *  grid's window.
+     */   
+    public int getCellCount() {
+        int count = 0;
+        for( int h : halfHeights ) {
+            count += h * 2 + 1;
+        }
+        if( yRadius >= 0 ) {
+            return count * Math.min(layers, yRadius * 2 + 1);
+        }
+        return count * layers;
+    }
+ 
+    /**
+     *  Sets the number of layers above and below the center's layer that
+     *  will be paged.  The center's layer comes from the y passed to 
+     *  setCenterWorldLocation(x, y, z), clamped to the grid's layers.
+     *  This lets tall worlds only build the layers near the viewer.  
+     *  -1 means that all layers are always paged.  This must be set before
+     *  the grid is first centered.  Defaults to -1.
+     */   
+    public void setYRadius( int yRadius ) {
+        if( xCenterCell != Integer.MIN_VALUE ) {
+            throw new IllegalStateException("Y radius must be set before the grid is centered.");
+        }
+        this.yRadius = yRadius;
+    }
+    
+    public int getYRadius() {
+        return yRadius;
+    }
+ 
+    /**
+     *  Set to true to skip building child zones whose parent zones all
+     *  came up empty, ie: have nothing attached to their zone roots.  
+     *  Air and solid rock chunks produce no terrain so there is no reason 
+     *  to plot grass or trees on them.  This is set on the child grid.
+     *  Defaults to false.
+     */   
+    public void setSkipEmptyParents( boolean b ) {
+        this.skipEmptyParents = b;
+    }
+    
+    public boolean getSkipEmptyParents() {
+        return skipEmptyParents;
+    }
+ 
+    /**
+     *  Returns the number of child zone builds that were skipped because
+     *  their parents were empty.
+     */   
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+ 
+    protected void updateHalfHeights() {
+        for( int dx = -radius; dx <= radius; dx++ ) {
+            int h;
+            switch( windowShape ) {
+                case Circle:
+                    // Include the cells whose centers are within about
+                    // half a cell of the radius
+                    h = 0;
+                    while( h < radius && dx * dx + (h + 1) * (h + 1) <= radius * radius + radius ) {
+                        h++;
+                    }
+                    break;
+                case Diamond:
+                    h = radius - Math.abs(dx);
+                    break;
+                default:
+                    h = radius;
+                    break;
+            }
+            halfHeights[dx + radius] = h;
+        }
+    }
+ 
+    /**
+     *  Sets a policy that can adjust the default center-distance
+     *  based priority of this grid's zones.  Defaults to null which
+     *  means zones are built strictly by their distance from the center.
+     */   
+    public void setPriorityPolicy( PriorityPolicy policy ) {
+        this.priorityPolicy = policy;
+        centerVersion++;
+    }
+    
+    public PriorityPolicy getPriorityPolicy() {
+        return priorityPolicy;
+    }
+ 
+    /**
+     *  Marks the priorities of this grid's zones and all child grid zones
+     *  as stale and has the builder resort its pending queue.  Priorities
+     *  are always refreshed when the center cell changes but this can be 
+     *  called when something else the priority policy depends on has 
+     *  changed, like the camera direction.
+     */   
+    public void refreshPriorities() {
+        builder.pause();
+        invalidatePriorities();
+        builder.resume();
+    }
+    
+    protected void invalidatePriorities() {
+        centerVersion++;
+        if( children != null ) {
+            for( PagedGrid child : children.getArray() ) {
+                child.invalidatePriorities();
+            }
+        }
+    }
+    
+    /**
+     *  Sets the Builder lane that this grid's zones will be built in.
+     *  Defaults to null which means the Builder's default lane.  This
+     *  should be set before the grid is first centered as zones
+     *  keep the lane they were first built with.
+     */
+    public void setBuilderLane( BuilderLane lane ) {
+        this.lane = lane;
+    }
+    
+    public BuilderLane getBuilderLane() {
+        return lane;
+    }
+    
+    /**
+     *  Set to true to have the grid speculatively build the row of 
+     *  zones that the center location is moving towards.  Prefetched
+     *  zones are built at a lower priority than any zone in the window
+     *  and are released again if the heading changes.  Only root grids
+     *  prefetch.  Child grids benefit anyway because their zones can be
+     *  built as soon as they enter the window.  Defaults to false.
+     */
+    public void setPrefetch( boolean b ) {
+        if( this.prefetch == b ) {
+            return;
+        }
+        this.prefetch = b;
+        if( !b ) {
+            cancelPrefetch(null);
+        }
+    }
+    
+    public boolean getPrefetch() {
+        return prefetch;
+    }
+ 
+    /**
+     *  Sets the speed in world units per second that the center must
+     *  be moving before zones are prefetched.  Defaults to 1.
+     */   
+    public void setMinPrefetchSpeed( float speed ) {
+        this.minPrefetchSpeed = speed;
+    }
+    
+    public float getMinPrefetchSpeed() {
+        return minPrefetchSpeed;
+    }
+ 
+    /**
+     *  Returns the smoothed velocity of the center location as
+     *  tracked from successive setCenterWorldLocation() calls.
+     */   
+    public Vector3f getVelocity() {
+        return velocity;
+    }
+ 
+    /**
+     *  Sets the number of built zones that will be kept alive (but hidden)
+     *  after they leave the window.  If the window moves back over 
+     *  them then they are reused without being rebuilt.  Child grids 
+     *  have their own windows and caches so they must be given their 
+     *  own keep-alive size to avoid rebuilding their zones.  A kept-alive
+     *  child also keeps its parent zones from being released until it
+     *  is evicted.  Defaults to 0.
+     */   
+    public void setKeepAliveSize( int size ) {
+        this.keepAliveSize = size;
+        trimKeepAlive();
+    }
+    
+    public int getKeepAliveSize() {
+        return keepAliveSize;
+    }
+ 
+    /**
+     *  Sets the maximum number of bytes of mesh data that will be
+     *  held by kept-alive zones.  This is estimated from the vertex
+     *  buffers under each zone's root.  Child grid zones are not part
+     *  of that root and are counted against the child grid's own 
+     *  budget.  0 means no limit other than the keep-alive size.  
+     *  Defaults to 0.
+     */   
+    public void setKeepAliveBudget( long bytes ) {
+        this.keepAliveBudget = bytes;
+        trimKeepAlive();
+    }
+    
+    public long getKeepAliveBudget() {
+        return keepAliveBudget;
+    }
+ 
+    /**
+     *  Returns the estimated bytes of mesh data currently held by
+     *  kept-alive zones.
+     */   
+    public long getKeepAliveBytes() {
+        return keepAliveBytes;
+    }
+    
+    public int getKeepAliveCount() {
+        return keepAlive.size();
+    }
+ 
+    /**
+     *  Returns the number of cells entering the window that were 
+     *  satisfied by a kept-alive zone.
+     */   
+    public long getKeepAliveHits() {
+        return keepAliveHits;
+    }
+ 
+    /**
+     *  Returns the number of cells entering the window that were
+     *  satisfied by a prefetched zone.
+     */   
+    public long getPrefetchHits() {
+        return prefetchHits;
+    }
+ 
+    /**
+     *  Returns the number of cells entering the window that had
+     *  to be created from scratch.
+     */   
+    public long getMisses() {
+        return misses;
+    }
+ 
+    /**
+     *  Returns the fraction of cells entering the window that were 
+     *  satisfied by the keep-alive cache.
+     */   
+    public float getKeepAliveHitRate() {
+        long total = keepAliveHits + prefetchHits + misses;
+        if( total == 0 ) {
+            return 0;
+        }
+        return (float)keepAliveHits / total;
+    }
+    
     public void setTrackViewLocation( boolean b ) {
         this.trackViewLocation = b;
     }
@@ -207,6 +610,51 @@ public class PagedGrid {
         return trackViewLocation;
     }
  
+    /**
+     *  Set to true if every zone in the window should be told its new
+     *  center-relative location whenever the center moves.  This is
+     *  needed for zones that change their level of detail or sorting
+     *  based on distance.  When false, only the zones entering the window 
+     *  are told.  Defaults to true.
+     */   
+    public void setTrackRelativeLocation( boolean b ) {
+        this.trackRelativeLocation = b;
+    }
+    
+    public boolean getTrackRelativeLocation() {
+        return trackRelativeLocation;
+    }
+ 
+    /**
+     *  Returns the parent PagedGrid that this grid's zones depend on or
+     *  null if this is a root grid.
+     */
+    public PagedGrid getParent() {
+        return parent;
+    }
+ 
+    /**
+     *  Returns the zone at the specified world cell if it has been built
+     *  and applied and not yet released, else returns null.  This includes
+     *  zones that have left the window but are being kept alive.  It is
+     *  safe to call from zone build threads so that zones can look at their
+     *  neighbors' built data but the returned zone should only be used
+     *  for read-only access through Zone.getZoneData().
+     */
+    public Zone getBuiltZone( int xCell, int yCell, int zCell ) {
+        return builtZones.get(new CellId(xCell, yCell, zCell));
+    }
+ 
+    /**
+     *  Returns the data published for the specified key by the built zone
+     *  at the specified world cell or null if there is no built zone there
+     *  or it didn't publish anything for that key.
+     */   
+    public <T> T getZoneData( int xCell, int yCell, int zCell, ZoneDataKey<T> key ) {
+        Zone zone = getBuiltZone(xCell, yCell, zCell);
+        return zone == null ? null : zone.getZoneData(key);
+    }
+ 
     protected void addChild( PagedGrid child ) {
         if( children == null ) {
             children = new SafeArrayList<PagedGrid>(PagedGrid.class);
@@ -214,20 +662,41 @@ public class PagedGrid {
         children.add(child);
     }
     
-    public void setCenterWorldLocation( float x, float z ) {        
-        if( setCenterCell(grid.toCellX(x), grid.toCellZ(z)) ) {
-            recalculateCorner();            
+    /**
+     *  Sets the center of the paging window.  If a y radius has been
+     *  set then the last y passed to setCenterWorldLocation(x, y, z) is
+     *  used for the vertical center.
+     */
+    public void setCenterWorldLocation( float x, float z ) {
+        setCenterWorldLocation(x, yCenterWorld, z);
+    }
+ 
+    /**
+     *  Sets the center of the paging window including the vertical
+     *  location used to select layers when a y radius has been set.
+     */   
+    public void setCenterWorldLocation( float x, float y, float z ) {
+        updateVelocity(x, z);
+        yCenterWorld = y;
+                
+        setCenterCell(grid.toCellX(x), grid.toCellY(y), grid.toCellZ(z));
+        
+        if( prefetch && parent == null ) {
+            updatePrefetch();
         }        
  
-        gridRoot.setLocalTranslation(-(x - xCornerWorld), 0, -(z - zCornerWorld));
+        gridRoot.setLocalTranslation(-(x - xAnchorWorld), 0, -(z - zAnchorWorld));
  
         // Let the center cells know that the position has moved
         if( trackViewLocation ) {
             //long start = System.nanoTime();
-            for( int i = radius - 1; i <= radius + 1; i++ ) {
-                for( int j = radius - 1; j <= radius + 1; j++ ) {                    
+            for( int i = -1; i <= 1; i++ ) {
+                for( int j = -1; j <= 1; j++ ) {                    
                     for( int layer = 0; layer < layers; layer++ ) {
-                        cells[i][layer][j].zone.setViewLocation(x, z);
+                        ZoneProxy ref = getWorldCell(xCenterCell + i, layer, zCenterCell + j);
+                        if( ref != null ) {
+                            ref.zone.setViewLocation(x, z);
+                        }
                     }
                 }
             }
@@ -237,162 +706,618 @@ public class PagedGrid {
                         
         if( children != null ) {
             for( PagedGrid child : children ) {
-                child.setCenterWorldLocation(x, z);
+                child.setCenterWorldLocation(x, y, z);
             }
         }
     }
  
-    protected void recalculateCorner() {
-        xCornerWorld = grid.toWorldX(xCenterCell - radius);
-        zCornerWorld = grid.toWorldZ(zCenterCell - radius);        
+    protected void updateVelocity( float x, float z ) {
+        long time = System.nanoTime();
+        if( lastTime < 0 ) {
+            lastTime = time;
+            lastX = x;
+            lastZ = z;
+            return;
+        }
+        float tpf = (time - lastTime) / 1000000000f;
+        if( tpf <= 0 ) {
+            return;
+        }
+        float vx = (x - lastX) / tpf;
+        float vz = (z - lastZ) / tpf;
+        lastTime = time;
+        lastX = x;
+        lastZ = z;
+        
+        if( tpf > 1 ) {
+            // Too long since the last update to say anything 
+            // about the current heading
+            velocity.set(0, 0, 0);
+            return;
+        }
+        
+        // Smooth it out so that small wobbles in the heading don't
+        // cause us to cancel the prefetch all the time.
+        float blend = Math.min(1, tpf * 4);
+        velocity.x += (vx - velocity.x) * blend;
+        velocity.z += (vz - velocity.z) * blend;
     }
  
-    protected ZoneProxy getWorldCell( int xCellWorld, int yCellWorld, int zCellWorld ) { 
-        int x = xCellWorld - (xCenterCell - radius);
-        int z = zCellWorld - (zCenterCell - radius);
-        if( x < 0 || z < 0 )
-            return null;
-        if( x >= size || z >= size )
+    /**
+     *  Makes sure the row of zones just outside the window in the
+     *  direction we are heading is building and cancels any others.
+     */
+    protected void updatePrefetch() {
+        // Anything that is no longer next to the window is of no
+        // use to us... the center must have jumped.
+        for( Iterator<Map.Entry<CellId, ZoneProxy>> it = prefetched.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<CellId, ZoneProxy> e = it.next();
+            CellId id = e.getKey();
+            if( Math.abs(id.x - xCenterCell) > radius + 1 || Math.abs(id.z - zCenterCell) > radius + 1
+                || id.y < yMinLayer || id.y > yMaxLayer ) {
+                it.remove();
+                e.getValue().markForRelease();
+            }
+        }
+    
+        float speed = (float)Math.sqrt(velocity.x * velocity.x + velocity.z * velocity.z);
+        if( speed < minPrefetchSpeed ) {
+            // Not moving enough to know where we are going... but
+            // we'll keep whatever is already building in case we
+            // start moving that way again.
+            return;
+        }
+        
+        // Only count an axis if we are mostly moving along it 
+        int dx = 0;
+        int dz = 0;
+        if( Math.abs(velocity.x) >= speed * 0.5f ) {
+            dx = velocity.x > 0 ? 1 : -1;
+        }
+        if( Math.abs(velocity.z) >= speed * 0.5f ) {
+            dz = velocity.z > 0 ? 1 : -1;
+        }
+ 
+        // The cells that would enter the window if it moved one
+        // more cell in that direction
+        List<CellId> wanted = new ArrayList<CellId>();
+        int xNext = xCenterCell + dx;
+        int zNext = zCenterCell + dz;
+        for( int x = xNext - radius; x <= xNext + radius; x++ ) {
+            int hNext = getHalfHeight(x - xNext);
+            int h = getHalfHeight(x - xCenterCell);
+            if( h < 0 ) {
+                addCellIds(x, zNext - hNext, zNext + hNext, wanted);
+            } else {
+                addCellIds(x, zNext - hNext, Math.min(zNext + hNext, zCenterCell - h - 1), wanted);
+                addCellIds(x, Math.max(zNext - hNext, zCenterCell + h + 1), zNext + hNext, wanted);
+            }
+        }
+        
+        cancelPrefetch(wanted);
+        
+        Vector3f temp = new Vector3f();
+        for( CellId id : wanted ) {
+            if( prefetched.containsKey(id) ) {
+                continue;
+            }
+            
+            // If we have it in keep-alive then it's already built
+            ZoneProxy ref = removeKeepAlive(id);
+            if( ref == null ) {
+                ref = new ZoneProxy(zoneFactory.createZone(this, id.x, id.y, id.z));
+                ref.zone.setRelativeGridLocation(id.x - xCenterCell, id.y, id.z - zCenterCell);
+                builder.build(ref, lane);
+            }
+            
+            // Keep it hidden until the window gets here but put it where
+            // it will be in case someone looks at it.
+            ref.zone.getZoneRoot().setCullHint(CullHint.Always);
+            positionZone(ref, temp);
+            
+            // Everything in the window should build first
+            ref.priorityOffset = size * priorityBias;
+            
+            prefetched.put(id, ref);
+        }                
+    }
+ 
+    private void addCellIds( int x, int zMin, int zMax, List<CellId> list ) {
+        for( int z = zMin; z <= zMax; z++ ) {
+            for( int y = yMinLayer; y <= yMaxLayer; y++ ) {
+                list.add(new CellId(x, y, z));
+            }
+        }
+    }
+ 
+    /**
+     *  Releases all prefetched zones that are not in the specified
+     *  list.  If the list is null then all of them are released.
+     */
+    protected void cancelPrefetch( List<CellId> keep ) {
+        for( Iterator<Map.Entry<CellId, ZoneProxy>> it = prefetched.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<CellId, ZoneProxy> e = it.next();
+            if( keep != null && keep.contains(e.getKey()) ) {
+                continue;
+            }
+            if( log.isTraceEnabled() ) {
+                log.trace("Canceling prefetch:" + e.getValue());
+            }
+            it.remove();
+            e.getValue().markForRelease();
+        }
+    }
+ 
+    /**
+     *  Returns a zone that was prefetched or kept alive for the specified
+     *  cell, making it visible again.  Returns null if there is no such
+     *  zone or it is already on its way out.
+     */   
+    protected ZoneProxy reviveZone( int xCell, int yCell, int zCell ) {
+        if( prefetched.isEmpty() && keepAlive.isEmpty() ) {
+            misses++;
             return null;
-        return cells[x][yCellWorld][z];           
+        }
+        CellId id = new CellId(xCell, yCell, zCell);
+        ZoneProxy result = removeKeepAlive(id);
+        if( result != null ) {
+            keepAliveHits++;
+        } else {
+            result = prefetched.remove(id);
+            if( result != null && !result.releasing ) {
+                prefetchHits++;
+            } else {
+                misses++;
+                return null;
+            }
+        }
+        result.priorityOffset = 0;
+        result.zone.getZoneRoot().setCullHint(CullHint.Inherit);
+        return result;
     }
  
-    protected ZoneProxy removeWorldCell( int xCellWorld, int yCellWorld, int zCellWorld ) {
-        int x = xCellWorld - (xCenterCell - radius);
-        int z = zCellWorld - (zCenterCell - radius);
-        if( x < 0 || z < 0 )
+    /**
+     *  Removes and returns the kept-alive zone for the specified cell
+     *  or null if there isn't one that is still usable.
+     */   
+    protected ZoneProxy removeKeepAlive( CellId id ) {
+        ZoneProxy result = keepAlive.remove(id);
+        if( result == null ) {
             return null;
-        if( x >= size || z >= size )
+        }
+        keepAliveBytes -= result.keepAliveBytes;
+        if( result.releasing ) {
+            // A parent must have released it out from under us
             return null;
-        
-        ZoneProxy result = cells[x][yCellWorld][z];
-        cells[x][yCellWorld][z] = null;             
+        }
         return result;
     }
+ 
+    /**
+     *  Called for zones that have left the window.  If keep-alive is
+     *  enabled then they are hidden and held onto for a while, else
+     *  they are released.
+     */   
+    protected void retireZone( ZoneProxy proxy ) {
+        // Only zones that have actually been built and applied are
+        // worth keeping.  Anything else would need building anyway.
+        if( keepAliveSize <= 0 || proxy.releasing || !proxy.applied ) {
+            proxy.markForRelease();
+            return;
+        }
+        proxy.zone.getZoneRoot().setCullHint(CullHint.Always);
+        proxy.keepAliveBytes = estimateBytes(proxy.zone.getZoneRoot());
+        keepAliveBytes += proxy.keepAliveBytes;
+        
+        Zone zone = proxy.zone;
+        keepAlive.put(new CellId(zone.getXCell(), zone.getYCell(), zone.getZCell()), proxy);
+        trimKeepAlive();
+    }
     
-    protected boolean setCenterCell( int xNew, int zNew ) {
-        if( xCenterCell == xNew && zCenterCell == zNew ) {
-            return false;
+    protected void trimKeepAlive() {
+        // Drop anything that a parent zone has already released so that
+        // it doesn't count against the limits
+        for( Iterator<ZoneProxy> it = keepAlive.values().iterator(); it.hasNext(); ) {
+            ZoneProxy proxy = it.next();
+            if( proxy.releasing ) {
+                it.remove();
+                keepAliveBytes -= proxy.keepAliveBytes;
+            }
         }
+        
+        for( Iterator<ZoneProxy> it = keepAlive.values().iterator(); it.hasNext(); ) {
+            if( keepAlive.size() <= keepAliveSize 
+                && (keepAliveBudget <= 0 || keepAliveBytes <= keepAliveBudget) ) {
+                break;
+            }
+            ZoneProxy proxy = it.next();
+            it.remove();
+            keepAliveBytes -= proxy.keepAliveBytes;
+            if( log.isTraceEnabled() ) {
+                log.trace("Evicting kept-alive zone:" + proxy);
+            }
+            proxy.markForRelease();
+        }
+    }
  
+    /**
+     *  Returns a rough estimate of the mesh memory used by the
+     *  specified spatial.  Meshes that are shared by more than one
+     *  geometry are only counted once.
+     */   
+    protected static long estimateBytes( Spatial root ) {
+        final Map<Mesh, Boolean> seen = new IdentityHashMap<Mesh, Boolean>();
+        final long[] total = new long[1];
+        root.depthFirstTraversal(new SceneGraphVisitor() {
+                @Override
+                public void visit( Spatial spatial ) {
+                    if( !(spatial instanceof Geometry) ) {
+                        return;
+                    }
+                    Mesh mesh = ((Geometry)spatial).getMesh();
+                    if( mesh == null || seen.put(mesh, Boolean.TRUE) != null ) {
+                        return;
+                    }
+                    for( VertexBuffer vb : mesh.getBufferList() ) {
+                        if( vb.getData() != null ) {
+                            total[0] += (long)vb.getData().limit() * vb.getFormat().getComponentSize();
+                        }
+                    }
+                }
+            });
+        return total[0];
+    }
+    
+    /**
+     *  Returns the index in the cells array for the specified world
+     *  cell x or z.
+     */
+    protected int toIndex( int cell ) {
+        int i = cell % size;
+        return i < 0 ? i + size : i;
+    }
+
+    /**
+     *  Returns the number of cells above and below the center row
+     *  that the window's column at the specified x offset from the
+     *  center covers.  Returns -1 if the column is outside the window.
+     */
+    protected int getHalfHeight( int dx ) {
+        if( dx < -radius || dx > radius ) {
+            return -1;
+        }
+        return halfHeights[dx + radius];
+    }
+
+    protected ZoneProxy getWorldCell( int xCellWorld, int yCellWorld, int zCellWorld ) {
+        int h = getHalfHeight(xCellWorld - xCenterCell); 
+        if( h < 0 )
+            return null;
+        if( Math.abs(zCellWorld - zCenterCell) > h )
+            return null;
+        if( yCellWorld < yMinLayer || yCellWorld > yMaxLayer )
+            return null;
+        return cells[toIndex(xCellWorld)][yCellWorld][toIndex(zCellWorld)];
+    }
+
+    /**
+     *  Sets the zone root's translation relative to the current anchor cell.
+     */
+    protected void positionZone( ZoneProxy ref, Vector3f temp ) {
+        Zone zone = ref.zone;
+        Vector3f pos = grid.toWorld(zone.getXCell() - xAnchorCell, zone.getYCell(),
+                                    zone.getZCell() - zAnchorCell, temp);
+        zone.getZoneRoot().setLocalTranslation(pos);
+    }
+
+    /**
+     *  Tells the zone its current center-relative location and rebuilds
+     *  it if necessary.
+     */
+    protected void updateRelativeLocation( ZoneProxy ref ) {
+        Zone zone = ref.zone;
+        if( zone.setRelativeGridLocation(zone.getXCell() - xCenterCell, zone.getYCell(),
+                                         zone.getZCell() - zCenterCell) ) {
+            if( parent == null ) {
+                // Just rebuild it
+                builder.build(ref, lane);
+            } else {
+                // Let the parent decide when it needs
+                // to be rebuilt
+                parent.rebuildChild(ref);
+            }
+        }
+    }
+
+    protected boolean setCenterCell( int xNew, int yNew, int zNew ) {
+        // Figure out which layers we want
+        int yMinNew = 0;
+        int yMaxNew = layers - 1;
+        if( yRadius >= 0 ) {
+            yNew = Math.max(0, Math.min(layers - 1, yNew));
+            yMinNew = Math.max(0, yNew - yRadius);
+            yMaxNew = Math.min(layers - 1, yNew + yRadius);
+        }
+        if( xCenterCell == xNew && zCenterCell == zNew 
+            && yMinLayer == yMinNew && yMaxLayer == yMaxNew ) {
+            return false;
+        }
+
         builder.pause();
- 
-        int xzSize = (int)grid.getCellSize().x; 
-        int cellHeight = (int)grid.getCellSize().y;
-               
-        // Refresh the grid and offsets
-        // Copy the ones from the old array to the new...
-        // removing from the old as we go.  We'll clean up
-        // the ones we don't use after.
-        ZoneProxy[][][] newCells = new ZoneProxy[size][layers][size];
-        Vector3f temp = new Vector3f();
-        for( int x = -radius; x <= radius; x++ ) {
-            for( int z = -radius; z <= radius; z++ ) {
-                for( int y = 0; y < layers; y++ ) {
-                    
-                    // Remove it from the old array if it exists
-                    ZoneProxy ref = removeWorldCell(xNew + x, y, zNew + z);
-                    if( ref == null ) {
-                        // Need to create one
-                        ref = new ZoneProxy(zoneFactory.createZone(this, xNew + x, y, zNew + z));
-                        
-                        // Tell the zone its relative location before we build it
-                        ref.zone.setRelativeGridLocation(x, y, z);
-                        
-                        if( parent == null ) {
-                            builder.build(ref);
-                        } else {
-                            // We need to depend on parent zone(s).
-                            // The zone won't get built until the parent is built
-                            parent.addDependency(ref, grid); 
-                        }                         
-                    } 
 
-                    newCells[x + radius][y][z + radius] = ref;
-                    Zone zone = ref.zone;
-                    Vector3f pos = grid.toWorld(x + radius, y, z + radius, temp);
-                    zone.getZoneRoot().setLocalTranslation(pos);
-                    zone.resetPriority(xNew, 0, zNew, priorityBias);
-                    
-                    // Tell this zone what it's current center-relative location
-                    // is.  Rebuild it if necessary
-                    if( zone.setRelativeGridLocation(x, y, z) ) {
-                        if( parent == null ) {
-                            // Just rebuild it
-                            builder.build(ref);
-                        } else {
-                            // Let the parent decide when it needs
-                            // to be rebuilt
-                            parent.rebuildChild(ref);
-                        }
+        boolean first = xCenterCell == Integer.MIN_VALUE;
+        int xOld = xCenterCell;
+        int zOld = zCenterCell;
+        int yMinOld = yMinLayer;
+        int yMaxOld = yMaxLayer;
+        boolean yChanged = yMinOld != yMinNew || yMaxOld != yMaxNew;
+        xCenterCell = xNew;
+        zCenterCell = zNew;
+        yMinLayer = yMinNew;
+        yMaxLayer = yMaxNew;
+
+        // Everything's priority is now stale but we'll let the zones
+        // figure that out when the builder asks
+        centerVersion++;
+
+        // Move the anchor if we've drifted too far from it.  Keeping
+        // the zone translations small keeps float precision reasonable.
+        boolean reanchor = first
+                            || Math.abs(xNew - radius - xAnchorCell) >= size
+                            || Math.abs(zNew - radius - zAnchorCell) >= size;
+        if( reanchor ) {
+            xAnchorCell = xNew - radius;
+            zAnchorCell = zNew - radius;
+            xAnchorWorld = grid.toWorldX(xAnchorCell);
+            zAnchorWorld = grid.toWorldZ(zAnchorCell);
+        }
+
+        // Clear the cells that have left the window first because
+        // the cells entering the window will take over their slots.
+        // They aren't retired until after the new cells are filled, though,
+        // so that they don't push reusable zones out of keep-alive.
+        List<ZoneProxy> leaving = new ArrayList<ZoneProxy>();
+        if( !first ) {
+            for( int x = xOld - radius; x <= xOld + radius; x++ ) {
+                int hOld = getHalfHeight(x - xOld);
+                int hNew = getHalfHeight(x - xNew);
+                if( hNew < 0 ) {
+                    clearCells(x, zOld - hOld, zOld + hOld, yMinOld, yMaxOld, leaving);
+                } else {
+                    // Just the ends of the column that are outside
+                    clearCells(x, zOld - hOld, Math.min(zOld + hOld, zNew - hNew - 1), yMinOld, yMaxOld, leaving);
+                    clearCells(x, Math.max(zOld - hOld, zNew + hNew + 1), zOld + hOld, yMinOld, yMaxOld, leaving);
+                    if( yChanged ) {
+                        // And the layers that have left the part that overlaps
+                        int zMin = Math.max(zOld - hOld, zNew - hNew);
+                        int zMax = Math.min(zOld + hOld, zNew + hNew);
+                        clearCells(x, zMin, zMax, yMinOld, Math.min(yMaxOld, yMinNew - 1), leaving);
+                        clearCells(x, zMin, zMax, Math.max(yMinOld, yMaxNew + 1), yMaxOld, leaving);
                     }
                 }
             }
         }
+
+        Vector3f temp = new Vector3f();
+        for( int x = xNew - radius; x <= xNew + radius; x++ ) {
+            int hNew = getHalfHeight(x - xNew);
+            int hOld = first ? -1 : getHalfHeight(x - xOld);
+            if( hOld < 0 ) {
+                createCells(x, zNew - hNew, zNew + hNew, yMinNew, yMaxNew, temp);
+            } else {
+                createCells(x, zNew - hNew, Math.min(zNew + hNew, zOld - hOld - 1), yMinNew, yMaxNew, temp);
+                createCells(x, Math.max(zNew - hNew, zOld + hOld + 1), zNew + hNew, yMinNew, yMaxNew, temp);
+                if( yChanged ) {
+                    int zMin = Math.max(zOld - hOld, zNew - hNew);
+                    int zMax = Math.min(zOld + hOld, zNew + hNew);
+                    createCells(x, zMin, zMax, yMinNew, Math.min(yMaxNew, yMinOld - 1), temp);
+                    createCells(x, zMin, zMax, Math.max(yMinNew, yMaxOld + 1), yMaxNew, temp);
+                }
+            }
+        }
         
         // Remove any dead ones
-        for( int i = 0; i < size; i++ ) {
-            for( int j = 0; j < layers; j++ ) {
-                for( int k = 0; k < size; k++ ) {
-                    if( cells[i][j][k] != null ) {
-                        // Let the zone decide when it gets released.
-                        // It may have children, etc.
-                        cells[i][j][k].markForRelease();
+        for( ZoneProxy ref : leaving ) {
+            // Let the zone decide when it gets released.
+            // It may have children, etc.
+            retireZone(ref);
+        }
+
+        if( (reanchor && !first) || trackRelativeLocation ) {
+            for( int i = 0; i < size; i++ ) {
+                for( int j = 0; j < layers; j++ ) {
+                    for( int k = 0; k < size; k++ ) {
+                        ZoneProxy ref = cells[i][j][k];
+                        if( ref == null ) {
+                            // Outside of the window shape
+                            continue;
+                        }
+                        if( reanchor ) {
+                            positionZone(ref, temp);
+                        }
+                        if( trackRelativeLocation ) {
+                            updateRelativeLocation(ref);
+                        }
                     }
                 }
             }
         }
- 
-        xCenterCell = xNew;
-        zCenterCell = zNew;
- 
-        cells = newCells;        
+
         builder.resume();
-        
-        return true; 
+
+        if( log.isDebugEnabled() && (keepAliveSize > 0 || prefetch) ) {
+            log.debug(this + " keep-alive hit rate:" + getKeepAliveHitRate()
+                        + " hits:" + keepAliveHits + " prefetch hits:" + prefetchHits + " misses:" + misses
+                        + " kept:" + keepAlive.size() + " bytes:" + keepAliveBytes);
+        }
+
+        return true;
     }
- 
+
+    /**
+     *  Clears the cells for the specified column and layer range, adding their
+     *  zones to the leaving list.
+     */
+    protected void clearCells( int x, int zMin, int zMax, int yMin, int yMax, List<ZoneProxy> leaving ) {
+        if( yMin > yMax ) {
+            return;
+        }
+        int i = toIndex(x);
+        for( int z = zMin; z <= zMax; z++ ) {
+            int k = toIndex(z);
+            for( int y = yMin; y <= yMax; y++ ) {
+                ZoneProxy ref = cells[i][y][k];
+                if( ref == null ) {
+                    continue;
+                }
+                cells[i][y][k] = null;
+                leaving.add(ref);
+            }
+        }
+    }
+
+    /**
+     *  Fills the cells for the specified column and layer range with either
+     *  revived zones or new ones.
+     */
+    protected void createCells( int x, int zMin, int zMax, int yMin, int yMax, Vector3f temp ) {
+        if( yMin > yMax ) {
+            return;
+        }
+        int i = toIndex(x);
+        for( int z = zMin; z <= zMax; z++ ) {
+            int k = toIndex(z);
+            for( int y = yMin; y <= yMax; y++ ) {
+                // Maybe we already have one waiting
+                ZoneProxy ref = reviveZone(x, y, z);
+                if( ref == null ) {
+                    // Need to create one
+                    ref = new ZoneProxy(zoneFactory.createZone(this, x, y, z));
+
+                    // Tell the zone its relative location before we build it
+                    ref.zone.setRelativeGridLocation(x - xCenterCell, y, z - zCenterCell);
+
+                    if( parent == null ) {
+                        builder.build(ref, lane);
+                    } else {
+                        // We need to depend on parent zone(s).
+                        // The zone won't get built until the parent is built
+                        parent.addDependency(ref, grid);
+                    }
+                } else if( !trackRelativeLocation ) {
+                    // It was somewhere else when it was last told
+                    updateRelativeLocation(ref);
+                }
+
+                cells[i][y][k] = ref;
+                positionZone(ref, temp);
+            }
+        }
+    }
+
     protected void addDependency( ZoneProxy childZone, Grid childGrid ) {
-        // Should really use a bounding box but for now we'll assume
-        // one parent hits.
-        float xWorld = childGrid.toWorldX(childZone.zone.getXCell());
-        float yWorld = childGrid.toWorldY(childZone.zone.getYCell());
-        float zWorld = childGrid.toWorldZ(childZone.zone.getZCell());
+        // Find all of the parent cells that the child's cell overlaps.
+        // If the grids line up then this is just one.
+        Zone zone = childZone.zone;
+        float xWorld = childGrid.toWorldX(zone.getXCell());
+        float yWorld = childGrid.toWorldY(zone.getYCell());
+        float zWorld = childGrid.toWorldZ(zone.getZCell());
+        Vector3f childSize = childGrid.getCellSize();
         
-        int xCell = grid.toCellX(xWorld);
-        int yCell = grid.toCellY(yWorld);
-        int zCell = grid.toCellZ(zWorld);
+        int xMin = grid.toCellX(xWorld);
+        int yMin = grid.toCellY(yWorld);
+        int zMin = grid.toCellZ(zWorld);
+        int xMax = lastCellX(xWorld + childSize.x);
+        int yMax = lastCellY(yWorld + childSize.y);
+        int zMax = lastCellZ(zWorld + childSize.z);
  
-        ZoneProxy parentZone = getWorldCell(xCell, yCell, zCell); 
-        if( parentZone == null ) {
-            log.warn("Parent zone is null for:" + xWorld + ", " + yWorld + ", " + zWorld);
+        List<ZoneProxy> parentZones = new ArrayList<ZoneProxy>();
+        for( int x = xMin; x <= xMax; x++ ) {
+            for( int y = Math.max(0, yMin); y <= Math.min(layers - 1, yMax); y++ ) {
+                for( int z = zMin; z <= zMax; z++ ) {
+                    ZoneProxy parentZone = getWorldCell(x, y, z);
+                    if( parentZone == null ) {
+                        // Some of the child hangs outside of our window
+                        // so it will be built with partial data.
+                        log.warn("Parent zone is null for:" + x + ", " + y + ", " + z + " child:" + zone);
+                        continue;
+                    }
+                    parentZones.add(parentZone);
+                }
+            }
+        }
+        if( parentZones.isEmpty() ) {
+            log.warn("No parent zones for:" + xWorld + ", " + yWorld + ", " + zWorld);
             return;
         }
+ 
+        // Set all of the parents before any of them have a chance
+        // to tell the child that they are ready
+        for( ZoneProxy parentZone : parentZones ) {
+            childZone.addParent(parentZone);
+        }
+        for( ZoneProxy parentZone : parentZones ) {
+            parentZone.addChild(childZone);
+        }
         
-        childZone.addParent(parentZone);
-        parentZone.addChild(childZone);
+        // If they are all already built then the child can go
+        childZone.parentApplied(null);
+    }
+ 
+    /**
+     *  Returns the cell containing the world location just before
+     *  the specified exclusive upper bound.
+     */
+    private int lastCellX( float xMax ) {
+        int result = grid.toCellX(xMax);
+        return grid.toWorldX(result) >= xMax ? result - 1 : result;
+    }
+    
+    private int lastCellY( float yMax ) {
+        int result = grid.toCellY(yMax);
+        return grid.toWorldY(result) >= yMax ? result - 1 : result;
+    }
+    
+    private int lastCellZ( float zMax ) {
+        int result = grid.toCellZ(zMax);
+        return grid.toWorldZ(result) >= zMax ? result - 1 : result;
     }
  
     protected void rebuildChild( ZoneProxy childZone ) {
-        // Right now we only support one parent per child
-        // so this is easy
-        ZoneProxy parentZone = childZone.parents.get(0);
-        parentZone.rebuildChild(childZone);        
+        // If the parents are all built then go ahead and let
+        // the child rebuild.  Else it will be built when the
+        // last of them is.
+        if( !childZone.isParentsApplied() ) {
+            return;
+        }
+        if( childZone.isBuiltOnce() ) {
+            childZone.rebuild();
+        } else {
+            // Never built so it may still be waiting on empty parents
+            childZone.parentApplied(null);
+        }
     }
     
     protected class ZoneProxy implements BuilderReference {
         private Zone zone;
         
-        // Some of this class was written to support multiple
-        // parents but practically, only one parent is allowed
-        // right now.  Comments below spell out why but I may
-        // someday want to support multiple parents so I feel
-        // uncomfortable ripping it out completely.
         private SafeArrayList<ZoneProxy> parents;  // dependencies
         private SafeArrayList<ZoneProxy> children; // dependents
         private boolean applied = false;
         private boolean releasing = false;
         private boolean released = false;
+        
+        // Added to the zone's priority, used to push prefetched
+        // zones behind the ones in the window. 
+        private volatile int priorityOffset = 0;
+        
+        // The centerVersion that the zone's priority was last reset for 
+        // and the policy-adjusted priority at that time
+        private int priorityVersion = -1;
+        private int priority;
+        
+        // The estimated size when it was put in keep-alive
+        private long keepAliveBytes;
 
         // Set to true if the zone has been built at least once.
         private AtomicBoolean builtOnce = new AtomicBoolean(false);
@@ -415,7 +1340,19 @@ public class PagedGrid {
 
         @Override
         public final int getPriority() {
-            return zone.getPriority();
+            // Only recalculate the center-relative priority if
+            // the center has moved since we last asked.
+            int version = centerVersion;
+            if( priorityVersion != version ) {
+                priorityVersion = version;
+                zone.resetPriority(xCenterCell, 0, zCenterCell, priorityBias);
+                priority = zone.getPriority();
+                PriorityPolicy policy = priorityPolicy;
+                if( policy != null ) {
+                    priority = policy.getPriority(PagedGrid.this, zone, priority);
+                }
+            }
+            return priority + priorityOffset;
         }
 
         @Override
@@ -432,6 +1369,7 @@ public class PagedGrid {
         public final void apply( Builder builder ) {
             applied = true;
             zone.apply(builder);
+            builtZones.put(new CellId(zone.getXCell(), zone.getYCell(), zone.getZCell()), zone);
             
             // Since we only attach on apply() we can get away
             // with detaching on release().  release() is only
@@ -473,6 +1411,7 @@ public class PagedGrid {
                 if( log.isTraceEnabled() ) {
                     log.trace("Calling release() on:" + zone);
                 }
+                builtZones.remove(new CellId(zone.getXCell(), zone.getYCell(), zone.getZCell()), zone);
                 zone.release(builder);
                 detach();
             }
@@ -574,25 +1513,65 @@ public class PagedGrid {
             }
         }
  
+        /**
+         *  Called when one of the parents has been applied or when
+         *  the parents have first been set.  The zone is only queued 
+         *  for building once all of its parents have been applied.
+         */
         protected void parentApplied( ZoneProxy parent ) {
-            // Let the zone know about its parent depencies
-            // (Note: we don't even get into this method unless we
-            //  already know we have parents.)
-            zone.setParentZone(parent.zone);
+            if( releasing || !isParentsApplied() ) {
+                return;
+            }
             
-            // And right here we force one parent zone at a time.
-            // It becomes really difficult for a child to deal
-            // with multiple parents.  For one thing, they have
-            // no way of properly translating the separated mesh
-            // data because that's all local to the respective zones.
-            // So if we ever do want to support multiple parent zones
-            // then it needs to be explicitly spelled out... ie:
-            // probably we go back to something like MeshSource except
-            // it is an interface that provides the parent zones.
-                
-            // Right now we are only supporting one parent so we 
-            // will short cut and assume it is ok for us to build
-            builder.build(this);
+            // Let the zone know about its parent dependencies
+            ZoneProxy[] array = parents.getArray();
+            Zone[] parentZones = new Zone[array.length];
+            for( int i = 0; i < array.length; i++ ) {
+                parentZones[i] = array[i].zone;
+            } 
+            zone.setParentZones(parentZones);
+ 
+            // If we've never been built and there is nothing to build
+            // on then don't bother.  We'll get called again if the
+            // parents are rebuilt.
+            if( skipEmptyParents && !builtOnce.get() && isParentsEmpty() ) {
+                if( log.isTraceEnabled() ) {
+                    log.trace("Skipping child of empty parents:" + zone);
+                }
+                skippedCount++;
+                return;
+            }
+            
+            builder.build(this, lane);
+        }
+ 
+        /**
+         *  Returns true if none of the parents have anything attached
+         *  to their zone roots.
+         */       
+        protected boolean isParentsEmpty() {
+            for( ZoneProxy parent : parents.getArray() ) {
+                if( parent.zone.getZoneRoot().getQuantity() > 0 ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+ 
+        /**
+         *  Returns true if this zone has parents and they have all
+         *  been applied.
+         */       
+        protected boolean isParentsApplied() {
+            if( parents == null ) {
+                return false;
+            }
+            for( ZoneProxy parent : parents.getArray() ) {
+                if( !parent.applied ) {
+                    return false;
+                }
+            }
+            return true;
         }
         
         protected void rebuild() {
@@ -604,7 +1583,7 @@ public class PagedGrid {
             // because "applied" is not the whole story in the
             // case of a rebuild.  
             applied = false;
-            builder.build(this);
+            builder.build(this, lane);
         }
  
         protected void addParent( ZoneProxy parent ) {
@@ -619,21 +1598,6 @@ public class PagedGrid {
                 children = new SafeArrayList<ZoneProxy>(ZoneProxy.class);                
             }
             children.add(child);
-            
-            // If we are already built then go ahead and let the
-            // child know
-            if( applied ) {
-                child.parentApplied(this);
-            }
-        }
-    
-        protected void rebuildChild( ZoneProxy child ) {
-         
-            // If we are already built then go ahead and let
-            // the child build
-            if( applied ) {
-                child.rebuild();
-            }   
         }
                 
         protected void removeChild( ZoneProxy child ) {
@@ -661,4 +1625,40 @@ public class PagedGrid {
             return super.toString() + "[" + zone + "]";
         }
     }
+ 
+    protected static class CellId {
+        final int x;
+        final int y;
+        final int z;
+        
+        public CellId( int x, int y, int z ) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+        
+        @Override    
+        public final int hashCode() {
+            int hash = 37;
+            hash += 37 * hash + x;
+            hash += 37 * hash + y;
+            hash += 37 * hash + z;
+            return hash;
+        }
+        
+        @Override
+        public final boolean equals( Object o ) { 
+            if( o == null || o.getClass() != getClass() ) 
+                return false;
+            if( o == this ) 
+                return true;
+            CellId other = (CellId)o;
+            return other.x == x && other.y == y && other.z == z;
+        }
+        
+        @Override
+        public String toString() {
+            return "CellId[" + x + ", " + y + ", " + z + "]";
+        }
+    }
 }
@@ -0,0 +1,200 @@
+/*
+ * $Id$
+ * 
+ * Copyright (c) 2014, Simsilica, LLC
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright 
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its 
+ *    contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) 
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED 
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simsilica.pager;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+
+
+/**
+ *  A PriorityPolicy that builds the zones in front of the viewer
+ *  before the ones behind.  Zones inside the horizontal field of
+ *  view keep their default priority.  Outside of it, the priority is
+ *  pushed back by up to the grid's radius as the angle approaches
+ *  directly behind, so everything in view gets built first.
+ *
+ *  <p>The view is set from the application with setView().  It returns
+ *  true when the heading has changed enough that the caller should
+ *  call PagedGrid.refreshPriorities().</p>
+ *
+ *  @author    Paul Speed
+ */
+public class ViewPriorityPolicy implements PriorityPolicy {
+
+    private Vector3f location = new Vector3f();
+    private float xDir = 0;
+    private float zDir = -1;
+    
+    // The heading at the last refresh
+    private float xLastDir = 0;
+    private float zLastDir = -1;
+    
+    private float cosHalfAngle = FastMath.cos(FastMath.QUARTER_PI);
+    private float cosRefreshAngle = FastMath.cos(15 * FastMath.DEG_TO_RAD);
+    private int nearCells = 1;
+    private float penaltyScale = 1;
+    
+    public ViewPriorityPolicy() {
+    }
+ 
+    /**
+     *  Sets the horizontal half angle in radians of the view cone
+     *  within which zones keep their default priority.
+     */   
+    public void setHalfAngle( float radians ) {
+        this.cosHalfAngle = FastMath.cos(radians);
+    }
+    
+    public float getHalfAngle() {
+        return FastMath.acos(cosHalfAngle);
+    }
+ 
+    /**
+     *  Sets the half angle from the camera's horizontal field of 
+     *  view.  A small margin is added so that zones just off the 
+     *  edge of the screen are not penalized.
+     */   
+    public void setFieldOfView( Camera camera ) {
+        float angle = FastMath.atan(Math.abs(camera.getFrustumRight()) / camera.getFrustumNear());
+        setHalfAngle(Math.min(FastMath.PI, angle + 10 * FastMath.DEG_TO_RAD));
+    }
+ 
+    /**
+     *  Sets how far the heading must turn in radians before setView() 
+     *  will report that priorities should be refreshed.  Defaults to
+     *  15 degrees.
+     */   
+    public void setRefreshAngle( float radians ) {
+        this.cosRefreshAngle = FastMath.cos(radians);
+    }
+    
+    public float getRefreshAngle() {
+        return FastMath.acos(cosRefreshAngle);
+    }
+ 
+    /**
+     *  Sets the number of cells around the center cell that are always
+     *  built at their default priority regardless of direction.  Defaults
+     *  to 1.
+     */   
+    public void setNearCells( int cells ) {
+        this.nearCells = cells;
+    }
+    
+    public int getNearCells() {
+        return nearCells;
+    }
+ 
+    /**
+     *  Scales the penalty given to zones outside of the view.  1 means
+     *  that zones directly behind are pushed back by the grid radius.
+     *  Defaults to 1.
+     */   
+    public void setPenaltyScale( float scale ) {
+        this.penaltyScale = scale;
+    }
+    
+    public float getPenaltyScale() {
+        return penaltyScale;
+    }
+ 
+    /**
+     *  Sets the current world location and direction of the viewer.
+     *  Returns true if the horizontal heading has changed by more than
+     *  the refresh angle since the last time true was returned. 
+     */   
+    public boolean setView( Vector3f location, Vector3f direction ) {
+        this.location.set(location);
+        
+        float len = FastMath.sqrt(direction.x * direction.x + direction.z * direction.z);
+        if( len < 0.001f ) {
+            // Looking straight up or down, everything is as visible
+            // as everything else so just keep the last heading.
+            return false;
+        }
+        xDir = direction.x / len;
+        zDir = direction.z / len;
+        
+        if( xDir * xLastDir + zDir * zLastDir >= cosRefreshAngle ) {
+            return false;
+        }
+        xLastDir = xDir;
+        zLastDir = zDir;
+        return true;
+    }
+    
+    public Vector3f getLocation() {
+        return location;
+    }
+    
+    @Override
+    public int getPriority( PagedGrid grid, Zone zone, int basePriority ) {
+        return basePriority + getViewPenalty(grid, zone);
+    }
+ 
+    /**
+     *  Returns the priority penalty for the specified zone based
+     *  on its direction from the viewer.
+     */   
+    protected int getViewPenalty( PagedGrid grid, Zone zone ) {
+        Grid zoneGrid = zone.getGrid();
+        int xCell = zoneGrid.toCellX(location.x);
+        int zCell = zoneGrid.toCellZ(location.z);
+        if( Math.abs(zone.getXCell() - xCell) <= nearCells 
+            && Math.abs(zone.getZCell() - zCell) <= nearCells ) {
+            return 0;
+        }
+    
+        // Direction to the center of the zone
+        Vector3f size = zoneGrid.getCellSize();
+        float dx = zoneGrid.toWorldX(zone.getXCell()) + size.x * 0.5f - location.x;
+        float dz = zoneGrid.toWorldZ(zone.getZCell()) + size.z * 0.5f - location.z;
+        float len = FastMath.sqrt(dx * dx + dz * dz);
+        if( len == 0 ) {
+            return 0;
+        }
+        float cos = (dx * xDir + dz * zDir) / len;
+        if( cos >= cosHalfAngle ) {
+            return 0;
+        }
+        
+        // Ramp from 0 at the edge of the view to 1 directly behind
+        float t = (cosHalfAngle - cos) / (cosHalfAngle + 1);
+        return (int)(t * penaltyScale * grid.getRadius() * grid.getPriorityBias());
+    }
+}
@@ -56,11 +56,13 @@ public interface Zone extends BuilderReference {
     public Grid getGrid();
 
     /**
-     *  When this zone is dependent on a parent zone then the
-     *  parent zone will be set when the parent zone has
-     *  been built and before this zone is queued for building. 
+     *  When this zone is dependent on parent zones then the
+     *  parent zones will be set when all of the parent zones have
+     *  been built and before this zone is queued for building.
+     *  A child grid whose cells don't line up with the parent grid's
+     *  cells will have more than one parent for some zones. 
      */
-    public void setParentZone( Zone parentZone );
+    public void setParentZones( Zone... parentZones );
 
     /**
      *  Called be the pager to set the current center-cell relative
@@ -89,4 +91,13 @@ public interface Zone extends BuilderReference {
     public Vector3f getWorldLocation( Vector3f target );
     
     public void resetPriority( int xCenter, int yCenter, int zCenter, int bias );
+ 
+    /**
+     *  Returns the data published for the specified key by this zone's
+     *  most recently applied build or null if there is none.  This may
+     *  be called from other zones' build threads so implementations
+     *  should only ever publish data that is not modified afterwards
+     *  and should swap it in atomically.
+     */   
+    public <T> T getZoneData( ZoneDataKey<T> key );
 }
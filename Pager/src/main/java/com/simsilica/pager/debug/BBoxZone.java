@@ -40,10 +40,9 @@ import com.jme3.material.Material;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Mesh;
-import com.jme3.scene.VertexBuffer;
 import com.jme3.scene.debug.WireBox;
-import com.jme3.util.BufferUtils;
 import com.simsilica.builder.Builder;
+import com.simsilica.builder.BufferReclaimer;
 import com.simsilica.pager.AbstractZone;
 import com.simsilica.pager.Grid;
 import com.simsilica.pager.PagedGrid;
@@ -91,13 +90,7 @@ public class BBoxZone extends AbstractZone {
 
     @Override
     public void release( Builder builder ) {
-        Mesh mesh = boxGeom.getMesh();
-        for( VertexBuffer vb : mesh.getBufferList() ) {
-            if( log.isDebugEnabled() ) {
-                log.debug("--destroying buffer:" + vb);
-            }
-            BufferUtils.destroyDirectBuffer( vb.getData() );
-        }        
+        BufferReclaimer.getInstance().reclaim(boxGeom.getMesh());
     }
     
     public static class Factory implements ZoneFactory {
@@ -56,7 +56,6 @@ import com.jme3.renderer.queue.RenderQueue.Bucket;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
-import com.jme3.scene.VertexBuffer;
 import com.jme3.scene.debug.WireBox;
 import com.jme3.scene.shape.Quad;
 import com.jme3.texture.FrameBuffer;
@@ -68,6 +67,7 @@ import com.simsilica.arboreal.mesh.BillboardedLeavesMeshGenerator;
 import com.simsilica.arboreal.mesh.SkinnedTreeMeshGenerator;
 import com.simsilica.arboreal.mesh.Vertex;
 import com.simsilica.builder.Builder;
+import com.simsilica.builder.BufferReclaimer;
 import com.simsilica.builder.BuilderReference;
 import com.simsilica.lemur.GuiGlobals;
 import com.simsilica.lemur.core.VersionedReference;
@@ -292,17 +292,8 @@ public class AtlasGeneratorState extends BaseAppState {
     }
 
     protected void releaseMesh( Mesh mesh ) {
-        if( mesh == null ) {
-            return;
-        }
- 
-        // Delete the old buffers
-        for( VertexBuffer vb : mesh.getBufferList() ) {
-            if( log.isTraceEnabled() ) {
-                log.trace("--destroying buffer:" + vb);
-            }
-            BufferUtils.destroyDirectBuffer( vb.getData() );
-        }                            
+        // Delete the old buffers in the background
+        BufferReclaimer.getInstance().reclaim(mesh);
     }        
 
     private float nextUpdateCheck = 0.1f;
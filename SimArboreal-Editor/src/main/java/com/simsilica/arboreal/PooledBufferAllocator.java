@@ -0,0 +1,80 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2014, Simsilica, LLC
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright 
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its 
+ *    contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) 
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED 
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simsilica.arboreal;
+
+import com.simsilica.arboreal.mesh.BufferAllocator;
+import com.simsilica.builder.DirectBufferPool;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+
+/**
+ *  A BufferAllocator that draws from a DirectBufferPool.  Only
+ *  meshes that are sure to be handed to the BufferReclaimer should
+ *  be built with it, otherwise the pool never sees the buffers 
+ *  again.
+ *
+ *  @author    Paul Speed
+ */
+public class PooledBufferAllocator implements BufferAllocator {
+
+    private final DirectBufferPool pool;
+    
+    public PooledBufferAllocator( DirectBufferPool pool ) {
+        this.pool = pool;
+    }
+    
+    public DirectBufferPool getPool() {
+        return pool;
+    }
+    
+    @Override
+    public FloatBuffer getFloatBuffer( int size ) {
+        return pool.getFloatBuffer(size);
+    }
+    
+    @Override
+    public IntBuffer getIntBuffer( int size ) {
+        return pool.getIntBuffer(size);
+    }
+    
+    @Override
+    public ShortBuffer getShortBuffer( int size ) {
+        return pool.getShortBuffer(size);
+    }
+}
@@ -47,16 +47,17 @@ import com.jme3.scene.Geometry;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial.CullHint;
-import com.jme3.scene.VertexBuffer;
 import com.jme3.scene.VertexBuffer.Type;
-import com.jme3.util.BufferUtils;
 import com.simsilica.arboreal.mesh.BillboardedLeavesMeshGenerator;
+import com.simsilica.arboreal.mesh.BufferAllocator;
 import com.simsilica.arboreal.mesh.FlatPolyTreeMeshGenerator;
 import com.simsilica.arboreal.mesh.LodSwitchControl;
 import com.simsilica.arboreal.mesh.SkinnedTreeMeshGenerator;
 import com.simsilica.arboreal.mesh.Vertex;
 import com.simsilica.builder.Builder;
+import com.simsilica.builder.BufferReclaimer;
 import com.simsilica.builder.BuilderReference;
+import com.simsilica.builder.DirectBufferPool;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -92,6 +93,10 @@ public class TreeBuilderReference implements BuilderReference
     private boolean showWire;
     
     private AtomicInteger needsUpdate = new AtomicInteger(1);
+ 
+    // Every mesh we build goes back through releaseMesh() so
+    // it's safe to draw them from the pool.
+    private BufferAllocator allocator = new PooledBufferAllocator(DirectBufferPool.getInstance());
     
     // For debugging    
     private volatile boolean check = false;
@@ -282,13 +287,8 @@ public class TreeBuilderReference implements BuilderReference
     }
  
     protected void releaseMesh( Mesh mesh ) {
-        // Delete the old buffers
-        for( VertexBuffer vb : mesh.getBufferList() ) {
-            if( log.isTraceEnabled() ) {
-                log.trace("--destroying buffer:" + vb);
-            }
-            BufferUtils.destroyDirectBuffer( vb.getData() );
-        }                            
+        // Delete the old buffers in the background
+        BufferReclaimer.getInstance().reclaim(mesh);
     }
         
     protected void regenerateTree() {
@@ -316,6 +316,7 @@ public class TreeBuilderReference implements BuilderReference
             switch( lodParms.reduction ) {
                 case Normal:                 
                     SkinnedTreeMeshGenerator meshGen = new SkinnedTreeMeshGenerator();
+                    meshGen.setAllocator(allocator);
         
                     if( baseTips == null ) {
                         baseTips = tips = new ArrayList<Vertex>();
@@ -341,6 +342,7 @@ public class TreeBuilderReference implements BuilderReference
                     break;
                 case FlatPoly:
                     FlatPolyTreeMeshGenerator polyGen = new FlatPolyTreeMeshGenerator();
+                    polyGen.setAllocator(allocator);
                     if( baseTips == null ) {
                         baseTips = tips = new ArrayList<Vertex>();
                     }
@@ -367,6 +369,7 @@ public class TreeBuilderReference implements BuilderReference
                     if( trunkBounds == null ) {
                         // Generate the mesh just to throw it away
                         meshGen = new SkinnedTreeMeshGenerator();
+                        meshGen.setAllocator(allocator);
         
                         if( baseTips == null ) {
                             baseTips = tips = new ArrayList<Vertex>();
@@ -501,7 +504,13 @@ public class TreeBuilderReference implements BuilderReference
         public void release() {
             levelNode.removeFromParent();
             releaseGeometry(treeGeom);
-            releaseGeometry(wireGeom);
+            if( wireGeom != null && treeGeom != null && wireGeom.getMesh() == treeGeom.getMesh() ) {
+                // Shares the tree's mesh so it's already been released.  Releasing
+                // it twice could free a buffer that the pool has handed out again.
+                wireGeom.removeFromParent();
+            } else {
+                releaseGeometry(wireGeom);
+            }
             releaseGeometry(leafGeom);
         }
     }    
@@ -43,7 +43,6 @@ import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.VertexBuffer.Type;
-import com.jme3.util.BufferUtils;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
@@ -69,8 +68,26 @@ public class MeshBuilder {
     private List<Triangle> triangles = new ArrayList<Triangle>();
     private Map<Vertex, NormalLinks> linksMap = new HashMap<Vertex, NormalLinks>();
     private List<NormalLinks> links = new ArrayList<NormalLinks>(); 
+    private BufferAllocator allocator;
     
     public MeshBuilder() {
+        this(BufferAllocator.DEFAULT);
+    }
+    
+    public MeshBuilder( BufferAllocator allocator ) {
+        this.allocator = allocator;
+    }
+ 
+    /**
+     *  Sets the allocator that build() draws its buffers from.
+     *  Defaults to BufferAllocator.DEFAULT.
+     */   
+    public void setAllocator( BufferAllocator allocator ) {
+        this.allocator = allocator;
+    }
+    
+    public BufferAllocator getAllocator() {
+        return allocator;
     }
  
     protected Vertex newVertex( Vector3f v, int group ) {
@@ -545,18 +562,18 @@ public class MeshBuilder {
         boolean hasUvs = verts.get(0).uv != null;
         boolean hasTangents = verts.get(0).tangent != null;
         
-        FloatBuffer pb = BufferUtils.createFloatBuffer(verts.size() * 3);
+        FloatBuffer pb = allocator.getFloatBuffer(verts.size() * 3);
         FloatBuffer nb = null;
         if( hasNormals ) {
-            nb = BufferUtils.createFloatBuffer(verts.size() * 3); 
+            nb = allocator.getFloatBuffer(verts.size() * 3); 
         }
         FloatBuffer tb = null;
         if( hasUvs ) {
-            tb = BufferUtils.createFloatBuffer(verts.size() * 2); 
+            tb = allocator.getFloatBuffer(verts.size() * 2); 
         }
         FloatBuffer tanb = null;
         if( hasTangents ) {
-            tanb = BufferUtils.createFloatBuffer(verts.size() * 4); 
+            tanb = allocator.getFloatBuffer(verts.size() * 4); 
         }
 
         for( Vertex vert : verts ) {
@@ -589,7 +606,7 @@ public class MeshBuilder {
 
         // Now the index buffer
         if( verts.size() <= 0xffff ) {
-            ShortBuffer ib = BufferUtils.createShortBuffer(triangles.size() * 3);
+            ShortBuffer ib = allocator.getShortBuffer(triangles.size() * 3);
             for( Triangle tri : triangles ) {
                 ib.put((short)tri.v1.index);
                 ib.put((short)tri.v2.index);
@@ -597,7 +614,7 @@ public class MeshBuilder {
             }
             mesh.setBuffer(Type.Index, 3, ib);
         } else {
-            IntBuffer ib = BufferUtils.createIntBuffer(triangles.size() * 3);
+            IntBuffer ib = allocator.getIntBuffer(triangles.size() * 3);
             for( Triangle tri : triangles ) {
                 ib.put(tri.v1.index);
                 ib.put(tri.v2.index);
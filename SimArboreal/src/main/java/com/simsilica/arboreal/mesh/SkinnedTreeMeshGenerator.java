@@ -57,10 +57,23 @@ import java.util.List;
 public class SkinnedTreeMeshGenerator {
 
     private CurveGenerator curveGen = CurveGenerator.DEFAULT;
+    private BufferAllocator allocator = BufferAllocator.DEFAULT;
+    
+    /**
+     *  Sets the allocator that generated meshes draw their buffers
+     *  from.  Defaults to BufferAllocator.DEFAULT.
+     */   
+    public void setAllocator( BufferAllocator allocator ) {
+        this.allocator = allocator;
+    }
+    
+    public BufferAllocator getAllocator() {
+        return allocator;
+    }
     
     public Mesh generateMesh( Tree tree, LevelOfDetailParameters lod, float yOffset, int uRepeat, float vScale, List<Vertex> tips ) {
  
-        MeshBuilder mb = new MeshBuilder();
+        MeshBuilder mb = new MeshBuilder(allocator);
  
         // Create the base loop for the main trunk... all
         // other segments branch off of that one.        